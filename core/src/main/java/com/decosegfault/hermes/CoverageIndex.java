@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes;
+
+import com.badlogic.gdx.math.Vector3;
+import com.decosegfault.atlas.util.AtlasUtils;
+import com.decosegfault.hermes.data.ShapeData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Uniform grid over the whole network that lists, for each cell, the shapes passing through it. A zone
+ * query only looks at the shapes in the cells its circle overlaps, then checks each of those against the
+ * zone with the shape's own segment grid, so the cost depends on how busy the zone is rather than on the
+ * size of the network. Built once after load, in flat arrays like the {@link ShapeData} segment grid.
+ * <p>
+ * Queries are not thread safe, they share a scratch array to skip shapes already seen.
+ *
+ * @author Lachlan Ellis
+ * @author Cathy Nguyen
+ */
+public class CoverageIndex {
+    /** number of cells along the longer side of the network */
+    private static final int GRID_SIZE = 512;
+    /** metres per degree of latitude */
+    private static final double METRES_PER_DEGREE = 111_320;
+
+    private final ShapeData[] shapes;
+    private final double gridMinX;
+    private final double gridMinY;
+    private final double cellSize;
+    private final int gridCols;
+    private final int gridRows;
+    /** shapes in cell c are cellShapes[cellStart[c]] to cellShapes[cellStart[c + 1] - 1] */
+    private final int[] cellStart;
+    private final int[] cellShapes;
+
+    /** query that last saw each shape, so a shape in several cells is only checked once */
+    private final int[] seen;
+    private int query = 0;
+
+    public CoverageIndex(Collection<ShapeData> shapeList) {
+        shapes = shapeList.toArray(new ShapeData[0]);
+        seen = new int[shapes.length];
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (ShapeData shape : shapes) {
+            for (int i = 0; i < shape.size(); i++) {
+                minX = Math.min(minX, shape.xs[i]);
+                minY = Math.min(minY, shape.ys[i]);
+                maxX = Math.max(maxX, shape.xs[i]);
+                maxY = Math.max(maxY, shape.ys[i]);
+            }
+        }
+        if (minX > maxX) {
+            minX = minY = maxX = maxY = 0;
+        }
+        gridMinX = minX;
+        gridMinY = minY;
+        cellSize = Math.max(Math.max(maxX - minX, maxY - minY) / GRID_SIZE, 1);
+        gridCols = (int) ((maxX - minX) / cellSize) + 1;
+        gridRows = (int) ((maxY - minY) / cellSize) + 1;
+
+        // count, prefix sum, then fill
+        int[] start = new int[gridCols * gridRows + 1];
+        int[] lastShape = new int[gridCols * gridRows];
+        Arrays.fill(lastShape, -1);
+        for (int shape = 0; shape < shapes.length; shape++) {
+            forEachCell(shape, start, null, lastShape);
+        }
+        for (int cell = 0, total = 0; cell < start.length; cell++) {
+            int count = start[cell];
+            start[cell] = total;
+            total += count;
+        }
+        int[] cells = new int[start[start.length - 1]];
+        int[] fill = Arrays.copyOf(start, start.length);
+        Arrays.fill(lastShape, -1);
+        for (int shape = 0; shape < shapes.length; shape++) {
+            forEachCell(shape, fill, cells, lastShape);
+        }
+        cellShapes = cells;
+        cellStart = start;
+    }
+
+    /**
+     * Finds every shape that passes within radius of a point.
+     *
+     * @param x Atlas x of the centre
+     * @param y Atlas y of the centre
+     * @param radius in Atlas units, see {@link #metresToAtlas(double, double, double)}
+     * @param out called once with each shape found
+     */
+    public void shapesWithin(double x, double y, double radius, Consumer<ShapeData> out) {
+        query++;
+        int x0 = Math.max(0, (int) Math.floor((x - radius - gridMinX) / cellSize));
+        int x1 = Math.min(gridCols - 1, (int) Math.floor((x + radius - gridMinX) / cellSize));
+        int y0 = Math.max(0, (int) Math.floor((y - radius - gridMinY) / cellSize));
+        int y1 = Math.min(gridRows - 1, (int) Math.floor((y + radius - gridMinY) / cellSize));
+        for (int gy = y0; gy <= y1; gy++) {
+            for (int gx = x0; gx <= x1; gx++) {
+                int cell = gy * gridCols + gx;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    int shape = cellShapes[i];
+                    if (seen[shape] == query) continue;
+                    seen[shape] = query;
+                    if (shapes[shape].nearestSegment(x, y, radius) >= 0) {
+                        out.accept(shapes[shape]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return every shape that passes within radius of a point, see {@link #shapesWithin(double, double, double, Consumer)}
+     */
+    public List<ShapeData> shapesWithin(double x, double y, double radius) {
+        List<ShapeData> found = new ArrayList<>();
+        shapesWithin(x, y, radius, found::add);
+        return found;
+    }
+
+    /**
+     * @return a distance in metres around a lat/long as a distance in Atlas units. Atlas coords are a
+     * Mercator projection, so the scale depends on latitude.
+     */
+    public static double metresToAtlas(double lat, double lon, double metres) {
+        Vector3 centre = AtlasUtils.INSTANCE.latLongToAtlas(lat, lon, 0.0);
+        Vector3 offset = AtlasUtils.INSTANCE.latLongToAtlas(lat + metres / METRES_PER_DEGREE, lon, 0.0);
+        return Math.abs(offset.y - centre.y);
+    }
+
+    /**
+     * Visits every grid cell overlapped by the bounding box of one of a shape's segments, once per shape.
+     * Counts into cursor if cells is null, otherwise writes the shape at each cell's cursor and advances it.
+     */
+    private void forEachCell(int shape, int[] cursor, int[] cells, int[] lastShape) {
+        double[] xs = shapes[shape].xs;
+        double[] ys = shapes[shape].ys;
+        for (int segment = 0; segment < shapes[shape].segmentCount(); segment++) {
+            int x0 = (int) ((Math.min(xs[segment], xs[segment + 1]) - gridMinX) / cellSize);
+            int x1 = (int) ((Math.max(xs[segment], xs[segment + 1]) - gridMinX) / cellSize);
+            int y0 = (int) ((Math.min(ys[segment], ys[segment + 1]) - gridMinY) / cellSize);
+            int y1 = (int) ((Math.max(ys[segment], ys[segment + 1]) - gridMinY) / cellSize);
+            for (int gy = y0; gy <= y1; gy++) {
+                for (int gx = x0; gx <= x1; gx++) {
+                    int cell = gy * gridCols + gx;
+                    if (lastShape[cell] == shape) continue;
+                    lastShape[cell] = shape;
+                    if (cells == null) {
+                        cursor[cell]++;
+                    } else {
+                        cells[cursor[cell]++] = shape;
+                    }
+                }
+            }
+        }
+    }
+}
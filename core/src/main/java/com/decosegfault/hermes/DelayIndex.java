@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes;
+
+import com.decosegfault.hermes.data.TripData;
+import com.decosegfault.hermes.frontend.RouteExpectedReal;
+import com.google.transit.realtime.GtfsRealtime;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Delays from the GTFS-RT TripUpdates feed of one {@link FeedSource}, indexed by dense trip ID
+ * (see {@link TripData#denseID}). Each feed's trips have a contiguous range of dense IDs, so the
+ * arrays only cover that range.
+ * <p>
+ * Everything is stored in primitive arrays: per trip, the trip delay and a slice of a flat stop
+ * update table holding the stop sequence and arrival/departure delays of each predicted stop.
+ * The table is rebuilt in place on every TripUpdates refresh. Trips that aren't in the static GTFS
+ * are ignored, since there is no schedule to shift.
+ *
+ * @author Cathy Nguyen
+ * @author Lachlan Ellis
+ */
+public class DelayIndex {
+    /** stored in place of a delay the feed didn't give */
+    public static final int NO_DELAY = Integer.MIN_VALUE;
+    private static final double DAY = 86400;
+
+    private final FeedSource feed;
+    private final int firstDenseID;
+    private final int tripCount;
+    /** delay of each trip in seconds, NO_DELAY if the trip isn't in the current feed */
+    private final int[] tripDelay;
+    /** first entry of each trip in the stop update table */
+    private final int[] stopStart;
+    /** number of entries of each trip in the stop update table */
+    private final int[] stopCount;
+
+    private int[] stopSequence = new int[4096];
+    private int[] arrivalDelay = new int[4096];
+    private int[] departureDelay = new int[4096];
+    private int stopSize = 0;
+
+    /** last known delay at the final stop of each trip, kept across refreshes */
+    private final int[] finalDelay;
+    /** true once a trip's final arrival has been turned into a RouteExpectedReal */
+    private final boolean[] reported;
+    /** slots of trips with a final delay that haven't been reported yet */
+    private int[] pending = new int[256];
+    private int pendingSize = 0;
+
+    /** number of the ingest that last filled each trip's slice, to spot a trip in more than one entity */
+    private final int[] ingestedIn;
+    /** TripUpdate timestamp of the entity each trip's slice came from */
+    private final long[] updateTimestamp;
+    private int ingestCount = 0;
+
+    /** header timestamp of the last feed ingested */
+    private long feedTimestamp = -1;
+
+    /**
+     * @param feed the feed whose TripUpdates are ingested, it must already be merged into {@link RouteHandler}
+     */
+    public DelayIndex(FeedSource feed) {
+        this.feed = feed;
+        firstDenseID = feed.firstDenseID;
+        tripCount = feed.tripCount;
+        tripDelay = new int[tripCount];
+        stopStart = new int[tripCount];
+        stopCount = new int[tripCount];
+        finalDelay = new int[tripCount];
+        reported = new boolean[tripCount];
+        ingestedIn = new int[tripCount];
+        updateTimestamp = new long[tripCount];
+        Arrays.fill(tripDelay, NO_DELAY);
+        Arrays.fill(finalDelay, NO_DELAY);
+    }
+
+    /**
+     * Rebuilds the index from a TripUpdates feed. If a trip is in more than one entity, only the one with
+     * the newest TripUpdate timestamp is kept, the first of them if the timestamps are equal or missing.
+     *
+     * @return false if the feed was skipped because it was already ingested
+     */
+    public boolean ingest(GtfsRealtime.FeedMessage tripFeed) {
+        long timestamp = tripFeed.getHeader().getTimestamp();
+        if (timestamp == feedTimestamp) return false;
+        feedTimestamp = timestamp;
+        ingestCount++;
+
+        Arrays.fill(tripDelay, NO_DELAY);
+        Arrays.fill(stopCount, 0);
+        stopSize = 0;
+
+        for (GtfsRealtime.FeedEntity entity : tripFeed.getEntityList()) {
+            if (!entity.hasTripUpdate()) continue;
+            GtfsRealtime.TripUpdate update = entity.getTripUpdate();
+            TripData trip = RouteHandler.tripsbyID.get(feed.qualify(update.getTrip().getTripId()));
+            if (trip == null || !feed.ownsDenseID(trip.denseID)) continue;
+            int dense = trip.denseID - firstDenseID;
+
+            long updated = update.getTimestamp();
+            if (ingestedIn[dense] == ingestCount) {
+                if (updated <= updateTimestamp[dense]) continue;
+                // newer than the entity already read, which is dropped; its stops stay unused in the table
+                tripDelay[dense] = NO_DELAY;
+            }
+            ingestedIn[dense] = ingestCount;
+            updateTimestamp[dense] = updated;
+            stopStart[dense] = stopSize;
+            stopCount[dense] = 0;
+            for (GtfsRealtime.TripUpdate.StopTimeUpdate stopUpdate : update.getStopTimeUpdateList()) {
+                if (!stopUpdate.hasStopSequence()) continue;
+                int arrival = stopUpdate.hasArrival() && stopUpdate.getArrival().hasDelay()
+                    ? stopUpdate.getArrival().getDelay() : NO_DELAY;
+                int departure = stopUpdate.hasDeparture() && stopUpdate.getDeparture().hasDelay()
+                    ? stopUpdate.getDeparture().getDelay() : NO_DELAY;
+                if (arrival == NO_DELAY && departure == NO_DELAY) continue;
+                addStop(stopUpdate.getStopSequence(), arrival, departure);
+                stopCount[dense]++;
+
+                if (stopUpdate.getStopSequence() == trip.lastStopSequence) {
+                    if (finalDelay[dense] == NO_DELAY && !reported[dense]) addPending(dense);
+                    finalDelay[dense] = arrival != NO_DELAY ? arrival : departure;
+                }
+            }
+
+            if (update.hasDelay()) {
+                tripDelay[dense] = update.getDelay();
+            } else if (stopCount[dense] > 0) {
+                // updates for passed stops are usually dropped, so the first one left is the next stop
+                tripDelay[dense] = delayOf(stopStart[dense]);
+            }
+        }
+        return true;
+    }
+
+    /** @return true if the current feed has a delay for the trip */
+    public boolean hasDelay(int denseID) {
+        int slot = denseID - firstDenseID;
+        return slot >= 0 && slot < tripCount && tripDelay[slot] != NO_DELAY;
+    }
+
+    /**
+     * @return delay of the trip in seconds, or 0 if the current feed has none
+     */
+    public int tripDelay(int denseID) {
+        return hasDelay(denseID) ? tripDelay[denseID - firstDenseID] : 0;
+    }
+
+    /**
+     * Looks up the delay at a stop, propagating the delay of the closest earlier predicted stop as
+     * GTFS-RT consumers are expected to.
+     *
+     * @return delay at the stop in seconds, or the trip delay if there is no prediction at or before it
+     */
+    public int delayAtStop(int denseID, int sequence) {
+        if (!hasDelay(denseID)) return 0;
+        int slot = denseID - firstDenseID;
+        int start = stopStart[slot];
+        int end = start + stopCount[slot];
+        int found = -1;
+        for (int i = start; i < end && stopSequence[i] <= sequence; i++) {
+            found = i;
+        }
+        return found >= 0 ? delayOf(found) : tripDelay[slot];
+    }
+
+    /**
+     * Turns predicted final arrivals that are now in the past into RouteExpectedReals, once per trip.
+     * GTFS times run past midnight for late trips while the time of day wraps, so arrivals are compared
+     * around the clock, and one up to half a day before the time of day counts as past.
+     *
+     * @param clockSeconds current epoch time in seconds, see {@link LiveDataFeed#clockSeconds()}
+     * @param out completed trips are appended here
+     */
+    public void collectCompleted(double clockSeconds, List<RouteExpectedReal> out) {
+        double timeOfDay = feed.secondOfDay(clockSeconds);
+        int i = 0;
+        while (i < pendingSize) {
+            int dense = pending[i];
+            TripData trip = RouteHandler.tripsByDenseID.get(firstDenseID + dense);
+            double actual = trip.endTime + finalDelay[dense];
+            double sinceArrival = (timeOfDay - actual) % DAY;
+            if (sinceArrival < -DAY / 2) sinceArrival += DAY;
+            if (sinceArrival > DAY / 2) sinceArrival -= DAY;
+            if (sinceArrival >= 0) {
+                RouteExpectedReal expectedReal = new RouteExpectedReal();
+                expectedReal.setRouteName(trip.routeName);
+                expectedReal.setRoute(trip.routeVehicleName);
+                expectedReal.setExpectedTime(trip.endTime);
+                expectedReal.setActualTime(actual);
+                out.add(expectedReal);
+                reported[dense] = true;
+                // swap remove, order doesn't matter
+                pending[i] = pending[--pendingSize];
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private int delayOf(int stop) {
+        return arrivalDelay[stop] != NO_DELAY ? arrivalDelay[stop] : departureDelay[stop];
+    }
+
+    private void addStop(int sequence, int arrival, int departure) {
+        if (stopSize == stopSequence.length) {
+            stopSequence = Arrays.copyOf(stopSequence, stopSize * 2);
+            arrivalDelay = Arrays.copyOf(arrivalDelay, stopSize * 2);
+            departureDelay = Arrays.copyOf(departureDelay, stopSize * 2);
+        }
+        stopSequence[stopSize] = sequence;
+        arrivalDelay[stopSize] = arrival;
+        departureDelay[stopSize] = departure;
+        stopSize++;
+    }
+
+    private void addPending(int dense) {
+        if (pendingSize == pending.length) {
+            pending = Arrays.copyOf(pending, pendingSize * 2);
+        }
+        pending[pendingSize++] = dense;
+    }
+}
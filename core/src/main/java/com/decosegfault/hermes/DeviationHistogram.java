@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes;
+
+/**
+ * Histogram of deviations from schedule in seconds, positive is late, with fixed bins so it takes the same
+ * memory however many observations it holds. Two histograms are merged by adding their counts, so routes
+ * and hours can be combined without keeping the observations.
+ * <p>
+ * Bins are {@link #BIN_WIDTH} seconds wide from {@link #MIN} to {@link #MAX}, with one more bin each side
+ * for anything beyond. Percentiles are interpolated within a bin, so they are accurate to a bin width.
+ *
+ * @author Cathy Nguyen
+ */
+public class DeviationHistogram {
+    /** seconds per bin */
+    public static final int BIN_WIDTH = 30;
+    /** earliest deviation with its own bin, in seconds */
+    public static final int MIN = -30 * 60;
+    /** latest deviation with its own bin, in seconds */
+    public static final int MAX = 60 * 60;
+    private static final int BINS = (MAX - MIN) / BIN_WIDTH;
+
+    /** counts[0] is under MIN, counts[BINS + 1] is at or over MAX */
+    private final long[] counts = new long[BINS + 2];
+    private long count = 0;
+    private double sum = 0;
+
+    /** Adds one deviation in seconds */
+    public void add(double deviation) {
+        counts[bin(deviation)]++;
+        count++;
+        sum += deviation;
+    }
+
+    /** Adds every observation of another histogram to this one */
+    public void merge(DeviationHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /** @return the exact mean deviation, NaN if empty */
+    public double mean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * @param p percentile from 0 to 100
+     * @return deviation in seconds that p percent of observations are at or under, NaN if empty.
+     * Observations beyond MIN or MAX are counted as MIN or MAX.
+     */
+    public double percentile(double p) {
+        if (count == 0) return Double.NaN;
+        double rank = Math.max(0, Math.min(100, p)) / 100 * count;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0 || seen + counts[i] < rank) {
+                seen += counts[i];
+                continue;
+            }
+            if (i == 0) return MIN;
+            if (i == counts.length - 1) return MAX;
+            double lower = MIN + (i - 1) * (double) BIN_WIDTH;
+            return lower + (rank - seen) / counts[i] * BIN_WIDTH;
+        }
+        return MAX;
+    }
+
+    private static int bin(double deviation) {
+        if (deviation < MIN) return 0;
+        if (deviation >= MAX) return BINS + 1;
+        return 1 + (int) ((deviation - MIN) / BIN_WIDTH);
+    }
+}
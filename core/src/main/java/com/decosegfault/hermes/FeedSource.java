@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes;
+
+import org.tinylog.Logger;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * One agency's GTFS feed and its GTFS-RT endpoints.
+ * <p>
+ * Several feeds can be loaded into one simulation. Every route, trip and shape ID from a feed is
+ * prefixed with its namespace (see {@link #qualify(String)}) so IDs from different agencies never
+ * collide. Route short names are prefixed the same way, so two agencies' route 1 are kept apart. By default
+ * there is one Translink feed with an empty namespace, so IDs are unchanged.
+ * <p>
+ * Each feed's schedule times are read in its agency_timezone, see {@link #secondOfDay(double)}.
+ * <p>
+ * More feeds are configured with -Dhermes.feeds=path to a properties file, for example:
+ * <pre>
+ * feeds=translink,gold
+ * translink.namespace=
+ * translink.gtfs=assets/hermes/gtfs.zip
+ * translink.vehicles=https://gtfsrt.api.translink.com.au/api/realtime/SEQ/VehiclePositions
+ * translink.trips=https://gtfsrt.api.translink.com.au/api/realtime/SEQ/TripUpdates
+ * gold.gtfs=/data/gold_gtfs.zip
+ * gold.vehicles=https://example.com/gold/VehiclePositions
+ * </pre>
+ * The namespace defaults to the feed name, and either realtime URL can be left out.
+ *
+ * @author Cathy Nguyen
+ * @author Lachlan Ellis
+ */
+public class FeedSource {
+    /** time zone of a feed whose agency doesn't give a valid one, Translink's */
+    public static final ZoneId DEFAULT_TIME_ZONE = ZoneId.of("Australia/Brisbane");
+    private static final String TRANSLINK_GTFS = "assets/hermes/gtfs.zip";
+    private static final String TRANSLINK_VEHICLES = "https://gtfsrt.api.translink.com.au/api/realtime/SEQ/VehiclePositions";
+    private static final String TRANSLINK_TRIPS = "https://gtfsrt.api.translink.com.au/api/realtime/SEQ/TripUpdates";
+
+    public final String name;
+    /** prefix of every ID from this feed, empty for none */
+    public final String namespace;
+    /** path to the GTFS zip, either on disk or an internal asset */
+    public final String gtfsPath;
+    /** VehiclePositions endpoint, null if the feed has none */
+    public final URL vehiclesURL;
+    /** TripUpdates endpoint, null if the feed has none */
+    public final URL tripsURL;
+
+    /** time zone the schedule is written in, from agency_timezone once the feed has been merged */
+    private volatile ZoneId timeZone = DEFAULT_TIME_ZONE;
+
+    /** first dense trip ID of this feed, set once it has been merged into {@link RouteHandler} */
+    int firstDenseID = 0;
+    /** number of trips in this feed, set once it has been merged into {@link RouteHandler} */
+    int tripCount = 0;
+
+    public FeedSource(String name, String namespace, String gtfsPath, String vehiclesURL, String tripsURL) {
+        this.name = name;
+        this.namespace = namespace;
+        this.gtfsPath = gtfsPath;
+        this.vehiclesURL = toURL(vehiclesURL);
+        this.tripsURL = toURL(tripsURL);
+    }
+
+    /**
+     * @return the ID with this feed's namespace prefixed, so it is unique across all feeds
+     */
+    public String qualify(String id) {
+        return namespace.isEmpty() ? id : namespace + ":" + id;
+    }
+
+    /**
+     * Sets the time zone from the feed's agency_timezone, keeping the default if it isn't valid.
+     */
+    void setTimeZone(String agencyTimezone) {
+        if (agencyTimezone == null || agencyTimezone.isBlank()) return;
+        try {
+            timeZone = ZoneId.of(agencyTimezone.trim());
+        } catch (DateTimeException e) {
+            Logger.warn("Feed {} has a bad agency_timezone {}, using {}", name, agencyTimezone, timeZone);
+        }
+    }
+
+    public ZoneId timeZone() {
+        return timeZone;
+    }
+
+    /**
+     * @return seconds since midnight in this feed's time zone for an epoch time in seconds
+     */
+    public double secondOfDay(double epochSeconds) {
+        return secondOfDay(epochSeconds, timeZone);
+    }
+
+    /**
+     * @return seconds since midnight in a time zone for an epoch time in seconds
+     */
+    public static double secondOfDay(double epochSeconds, ZoneId zone) {
+        long seconds = (long) epochSeconds;
+        return Instant.ofEpochSecond(seconds).atZone(zone).toLocalTime().toSecondOfDay()
+            + (epochSeconds - seconds);
+    }
+
+    /** @return true if the dense trip ID belongs to this feed */
+    public boolean ownsDenseID(int denseID) {
+        return denseID >= firstDenseID && denseID < firstDenseID + tripCount;
+    }
+
+    /**
+     * @return the default Translink SEQ feed, with an empty namespace
+     */
+    public static FeedSource translink() {
+        return new FeedSource("translink", "", TRANSLINK_GTFS, TRANSLINK_VEHICLES, TRANSLINK_TRIPS);
+    }
+
+    /**
+     * @return the feeds listed in the -Dhermes.feeds file, or just {@link #translink()} if it isn't set
+     */
+    public static List<FeedSource> configured() {
+        String configPath = System.getProperty("hermes.feeds");
+        List<FeedSource> feeds = new ArrayList<>();
+        if (configPath == null) {
+            feeds.add(translink());
+            return feeds;
+        }
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(Paths.get(configPath))) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to read feed config " + configPath, e);
+        }
+
+        for (String name : properties.getProperty("feeds", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) continue;
+            String gtfs = properties.getProperty(name + ".gtfs");
+            if (gtfs == null) {
+                throw new IllegalArgumentException("Feed " + name + " has no " + name + ".gtfs in " + configPath);
+            }
+            feeds.add(new FeedSource(name,
+                properties.getProperty(name + ".namespace", name).trim(),
+                gtfs.trim(),
+                properties.getProperty(name + ".vehicles"),
+                properties.getProperty(name + ".trips")));
+        }
+        if (feeds.isEmpty()) {
+            throw new IllegalArgumentException("No feeds listed in " + configPath);
+        }
+        Logger.info("Loaded {} feeds from {}", feeds.size(), configPath);
+        return feeds;
+    }
+
+    private static URL toURL(String url) {
+        if (url == null || url.isBlank()) return null;
+        try {
+            return new URI(url.trim()).toURL();
+        } catch (URISyntaxException | IOException e) {
+            throw new IllegalArgumentException("Bad feed URL " + url, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes;
+
+import com.decosegfault.hermes.frontend.BunchingAlert;
+import com.decosegfault.hermes.frontend.RouteHeadway;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures headways per route and direction from how far each vehicle is along its shape, and flags
+ * vehicles that are bunched up behind the one in front.
+ * <p>
+ * Every shape has {@link #TIMING_POINTS} evenly spaced timing points. When a vehicle's progress moves past
+ * one, the time it passed is interpolated between its last two observations, and its headway is the time
+ * since the previous vehicle on the same shape passed the same point. So each observation only costs the
+ * timing points crossed since the last one, and nothing is ever sorted or rescanned.
+ * <p>
+ * Headways go into a sliding window per route and direction, which keeps a running sum and sum of squares
+ * for the mean and standard deviation. A vehicle is bunched while its latest headway is under
+ * {@link #BUNCHING_RATIO} of its route and direction's mean.
+ *
+ * @author Cathy Nguyen
+ */
+public class HeadwayTracker {
+    /** timing points along each shape, not counting either end */
+    public static final int TIMING_POINTS = 20;
+    /** seconds of headways kept for the statistics */
+    public static final double WINDOW = 30 * 60;
+    /** headways shorter than this fraction of the mean count as bunching */
+    public static final double BUNCHING_RATIO = 0.25;
+    /** headways needed in the window before anything is flagged as bunched */
+    public static final int MIN_SAMPLES = 5;
+    /** longer gaps are the end of service rather than a headway */
+    private static final double MAX_HEADWAY = 2 * 60 * 60;
+
+    /** where each vehicle was last seen, by trip ID */
+    private final Map<String, Progress> vehicles = new HashMap<>();
+    /** last vehicle past each timing point, by shape ID */
+    private final Map<String, TimingPoints> shapes = new HashMap<>();
+    /** headway windows, by route and direction */
+    private final Map<List<String>, Window> windows = new LinkedHashMap<>();
+    private double latestTime = Double.NEGATIVE_INFINITY;
+
+    private boolean dirty = false;
+    private List<RouteHeadway> routeHeadways = Collections.emptyList();
+    private List<BunchingAlert> bunching = Collections.emptyList();
+
+    private static final class Progress {
+        double progress;
+        double time;
+    }
+
+    private static final class TimingPoints {
+        final double[] times = new double[TIMING_POINTS + 1];
+        final String[] trips = new String[TIMING_POINTS + 1];
+    }
+
+    /** headways in the last WINDOW seconds for one route and direction */
+    private static final class Window {
+        final String route;
+        final String direction;
+        /** [observed time, headway] */
+        final ArrayDeque<double[]> headways = new ArrayDeque<>();
+        double sum = 0;
+        double sumSq = 0;
+        final Map<String, BunchingAlert> bunched = new LinkedHashMap<>();
+
+        Window(String route, String direction) {
+            this.route = route;
+            this.direction = direction;
+        }
+
+        void add(double time, double headway) {
+            headways.addLast(new double[]{time, headway});
+            sum += headway;
+            sumSq += headway * headway;
+        }
+
+        /** @return true if anything was evicted */
+        boolean evict(double before) {
+            boolean evicted = false;
+            while (!headways.isEmpty() && headways.peekFirst()[0] < before) {
+                double headway = headways.pollFirst()[1];
+                sum -= headway;
+                sumSq -= headway * headway;
+                evicted = true;
+            }
+            if (headways.isEmpty()) {
+                // don't let rounding build up
+                sum = 0;
+                sumSq = 0;
+            }
+            return evicted;
+        }
+
+        double mean() {
+            return headways.isEmpty() ? 0 : sum / headways.size();
+        }
+
+        double std() {
+            if (headways.size() < 2) return 0;
+            double mean = mean();
+            return Math.sqrt(Math.max(0, sumSq / headways.size() - mean * mean));
+        }
+    }
+
+    /**
+     * Records where a vehicle is now.
+     *
+     * @param tripID trip the vehicle is running
+     * @param route route short name
+     * @param direction GTFS direction_id, may be null
+     * @param shapeID shape the vehicle is travelling along
+     * @param progress how far along the shape it is, 0 to 1
+     * @param time when it was there, in seconds
+     */
+    public void observe(String tripID, String route, String direction, String shapeID, double progress,
+                        double time) {
+        Progress last = vehicles.get(tripID);
+        if (last == null) {
+            last = new Progress();
+            vehicles.put(tripID, last);
+        } else if (time <= last.time) {
+            return;
+        } else if (progress > last.progress) {
+            passTimingPoints(tripID, route, direction, shapeID, last, progress, time);
+        }
+        // moving backwards is a new match rather than travel, so it just starts over from there
+        last.progress = progress;
+        last.time = time;
+    }
+
+    /**
+     * Forgets a vehicle whose trip has finished or disappeared.
+     */
+    public void remove(String tripID) {
+        if (vehicles.remove(tripID) == null) return;
+        for (Window window : windows.values()) {
+            if (window.bunched.remove(tripID) != null) dirty = true;
+        }
+    }
+
+    /**
+     * Drops headways older than the window, call once a tick before observing vehicles.
+     *
+     * @param now current time in seconds, on the same clock as {@link #observe}
+     */
+    public void tick(double now) {
+        if (now < latestTime) {
+            // the clock went backwards, in history mode at midnight
+            clear();
+        }
+        latestTime = now;
+        for (Window window : windows.values()) {
+            dirty |= window.evict(now - WINDOW);
+        }
+    }
+
+    /** Forgets everything */
+    public void clear() {
+        vehicles.clear();
+        shapes.clear();
+        windows.clear();
+        latestTime = Double.NEGATIVE_INFINITY;
+        dirty = true;
+    }
+
+    /**
+     * @return statistics of every route and direction with headways in the window. The list is only rebuilt
+     * when something changed, so the same list means nothing changed.
+     */
+    public List<RouteHeadway> getRouteHeadways() {
+        rebuild();
+        return routeHeadways;
+    }
+
+    /** @return vehicles bunched right now, rebuilt like {@link #getRouteHeadways()} */
+    public List<BunchingAlert> getBunching() {
+        rebuild();
+        return bunching;
+    }
+
+    /**
+     * Works out when the vehicle passed each timing point between its last observation and now, and its
+     * headway behind the vehicle that passed each one before it.
+     */
+    private void passTimingPoints(String tripID, String route, String direction, String shapeID, Progress last,
+                                  double progress, double time) {
+        int first = timingPoint(last.progress) + 1;
+        int end = Math.min(timingPoint(progress), TIMING_POINTS);
+        if (first > end) return;
+        TimingPoints points = shapes.computeIfAbsent(shapeID, k -> new TimingPoints());
+        for (int point = first; point <= end; point++) {
+            double fraction = (double) point / (TIMING_POINTS + 1);
+            double passed = last.time + (fraction - last.progress) / (progress - last.progress) * (time - last.time);
+            String leader = points.trips[point];
+            if (leader != null && !leader.equals(tripID)) {
+                double headway = passed - points.times[point];
+                if (headway > 0 && headway < MAX_HEADWAY) {
+                    record(tripID, leader, route, direction, headway, time);
+                }
+            }
+            points.times[point] = passed;
+            points.trips[point] = tripID;
+        }
+    }
+
+    private void record(String tripID, String leader, String route, String direction, double headway,
+                        double time) {
+        Window window = windows.computeIfAbsent(Arrays.asList(route, direction), k -> new Window(route, direction));
+        window.add(time, headway);
+        double mean = window.mean();
+        if (window.headways.size() >= MIN_SAMPLES && headway < BUNCHING_RATIO * mean) {
+            window.bunched.put(tripID, new BunchingAlert(route, direction, tripID, leader, headway, mean));
+        } else {
+            window.bunched.remove(tripID);
+        }
+        dirty = true;
+    }
+
+    private void rebuild() {
+        if (!dirty) return;
+        List<RouteHeadway> headways = new ArrayList<>();
+        List<BunchingAlert> alerts = new ArrayList<>();
+        for (Window window : windows.values()) {
+            if (window.headways.isEmpty() && window.bunched.isEmpty()) continue;
+            headways.add(new RouteHeadway(window.route, window.direction, window.headways.size(), window.mean(),
+                window.std(), window.bunched.size()));
+            alerts.addAll(window.bunched.values());
+        }
+        routeHeadways = headways;
+        bunching = alerts;
+        dirty = false;
+    }
+
+    /** @return index of the last timing point at or before progress, 0 for the start of the shape */
+    private static int timingPoint(double progress) {
+        return (int) Math.floor(Math.max(0, progress) * (TIMING_POINTS + 1));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.math.Vector3;
+import com.decosegfault.atlas.util.AtlasUtils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Counts how many ticks vehicles spend in each part of the map, for a heatmap of where vehicles are through
+ * the day. The counts start over when the time of day passed to {@link #rollDay} wraps past midnight, so
+ * the heatmap only ever covers one service day and the counters can't overflow over a long run.
+ * <p>
+ * Covers the same area as the Atlas map, {@link AtlasUtils#getNUM_X_TILES()} by
+ * {@link AtlasUtils#getNUM_Y_TILES()} slippy tiles at {@link AtlasUtils#getMIN_ZOOM()} from the NW corner.
+ * Level 0 splits each of those tiles into -Dhermes.heatmapCells cells a side (default 64, a power of two),
+ * and every level after has cells twice the size, down to one cell per tile. Every vehicle is counted into
+ * every level as it is added, so a tile at any zoom can be drawn from the level whose cells are the size of
+ * its pixels without summing anything.
+ * <p>
+ * Cells are slippy coords at {@link AtlasUtils#getPIXEL_ZOOM()}, which Atlas coords are offset from, so the
+ * grid lines up exactly with slippy tiles. Counters are atomic, so tiles can be drawn on server threads
+ * while the Hermes thread keeps adding without any locking.
+ *
+ * @author Cathy Nguyen
+ */
+public class HeatmapAccumulator {
+    /** level 0 cells along each side of a MIN_ZOOM tile */
+    public static final int CELLS_PER_TILE = Integer.highestOneBit(
+        Math.max(1, Integer.getInteger("hermes.heatmapCells", 64)));
+    public static final int LEVELS = Integer.numberOfTrailingZeros(CELLS_PER_TILE) + 1;
+
+    /** slippy coords at pixel zoom of the NW corner of the grid */
+    private final long originX;
+    private final long originY;
+    /** Atlas coords are slippy coords at pixel zoom minus this */
+    private final double centreX;
+    private final double centreY;
+    /** log2 of a level 0 cell's size in slippy coords at pixel zoom */
+    private final int cellShift;
+    private final int pixelZoom;
+
+    private final int[] widths = new int[LEVELS];
+    private final int[] heights = new int[LEVELS];
+    private final AtomicIntegerArray[] counts = new AtomicIntegerArray[LEVELS];
+    /** highest count in each level, for scaling colours the same across tiles */
+    private final AtomicInteger[] maxCounts = new AtomicInteger[LEVELS];
+    /** time of day last passed to rollDay, -1 before the first call */
+    private double lastTimeOfDay = -1;
+
+    public HeatmapAccumulator() {
+        AtlasUtils atlas = AtlasUtils.INSTANCE;
+        int minZoom = atlas.getMIN_ZOOM();
+        pixelZoom = (int) atlas.getPIXEL_ZOOM();
+        Vector2 nw = atlas.getNW_BRISBANE_LAT_LONG();
+        Vector3 nwTile = atlas.latLongZoomToSlippyCoord(new Vector3(nw.x, nw.y, minZoom));
+        int tileShift = pixelZoom - minZoom;
+        originX = (long) nwTile.x << tileShift;
+        originY = (long) nwTile.y << tileShift;
+        centreX = atlas.getMAP_CENTRE_SLIPPY().x;
+        centreY = atlas.getMAP_CENTRE_SLIPPY().y;
+        cellShift = tileShift - (LEVELS - 1);
+
+        for (int level = 0; level < LEVELS; level++) {
+            widths[level] = (atlas.getNUM_X_TILES() * CELLS_PER_TILE) >> level;
+            heights[level] = (atlas.getNUM_Y_TILES() * CELLS_PER_TILE) >> level;
+            counts[level] = new AtomicIntegerArray(widths[level] * heights[level]);
+            maxCounts[level] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Counts one vehicle at Atlas coords x, y. Anything off the map is ignored.
+     */
+    public void add(double x, double y) {
+        long cellX = (long) Math.floor(x + centreX - originX) >> cellShift;
+        long cellY = (long) Math.floor(y + centreY - originY) >> cellShift;
+        if (cellX < 0 || cellY < 0 || cellX >= widths[0] || cellY >= heights[0]) return;
+        for (int level = 0; level < LEVELS; level++) {
+            int cell = (int) (cellY >> level) * widths[level] + (int) (cellX >> level);
+            int count = counts[level].incrementAndGet(cell);
+            int max = maxCounts[level].get();
+            while (count > max && !maxCounts[level].compareAndSet(max, count)) {
+                max = maxCounts[level].get();
+            }
+        }
+    }
+
+    /**
+     * Clears the counts if the time of day went backwards since the last call, meaning a new day started.
+     * Must be called from the Hermes thread.
+     *
+     * @param timeOfDay seconds since midnight
+     */
+    public void rollDay(double timeOfDay) {
+        if (timeOfDay < lastTimeOfDay) clear();
+        lastTimeOfDay = timeOfDay;
+    }
+
+    /** Resets every count to zero */
+    public void clear() {
+        for (int level = 0; level < LEVELS; level++) {
+            for (int cell = 0; cell < counts[level].length(); cell++) {
+                counts[level].set(cell, 0);
+            }
+            maxCounts[level].set(0);
+        }
+    }
+
+    /**
+     * @return the level with cells closest to, but not bigger than, the given size in slippy coords at
+     * pixel zoom, or level 0 if its cells are already bigger
+     */
+    public int levelFor(long size) {
+        int level = 63 - Long.numberOfLeadingZeros(Math.max(1, size)) - cellShift;
+        return Math.max(0, Math.min(LEVELS - 1, level));
+    }
+
+    /**
+     * @return count of the cell holding slippy coords x, y at pixel zoom in a level, 0 if off the map
+     */
+    public int count(int level, long x, long y) {
+        long cellX = (x - originX) >> (cellShift + level);
+        long cellY = (y - originY) >> (cellShift + level);
+        if (cellX < 0 || cellY < 0 || cellX >= widths[level] || cellY >= heights[level]) return 0;
+        return counts[level].get((int) cellY * widths[level] + (int) cellX);
+    }
+
+    /** @return highest count of any cell in a level */
+    public int maxCount(int level) {
+        return maxCounts[level].get();
+    }
+
+    /** @return zoom level of the slippy coords taken by {@link #count} */
+    public int pixelZoom() {
+        return pixelZoom;
+    }
+
+    /** @return true if a slippy tile overlaps the grid at all */
+    public boolean overlaps(int zoom, long tileX, long tileY) {
+        int shift = pixelZoom - zoom;
+        long size = 1L << shift;
+        long gridSize = (long) widths[0] << cellShift;
+        long gridHeight = (long) heights[0] << cellShift;
+        return (tileX << shift) + size > originX && (tileX << shift) < originX + gridSize
+            && (tileY << shift) + size > originY && (tileY << shift) < originY + gridHeight;
+    }
+}
@@ -14,24 +14,36 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.math.Vector3;
 import com.decosegfault.atlas.render.AtlasVehicle;
-import com.decosegfault.atlas.util.AtlasUtils;
 import com.decosegfault.atlas.util.HPVector3;
 import com.decosegfault.hermes.data.RouteData;
 import com.decosegfault.hermes.data.TripData;
 import com.decosegfault.hermes.data.VehicleData;
+import com.decosegfault.hermes.data.VehicleTrajectory;
 import com.decosegfault.hermes.frontend.FrontendData;
 import com.decosegfault.hermes.frontend.FrontendEndpoint;
 import com.decosegfault.hermes.frontend.FrontendServer;
+import com.decosegfault.hermes.frontend.GtfsRealtimeServlet;
 import com.decosegfault.hermes.frontend.RouteExpectedReal;
+import com.decosegfault.hermes.frontend.VehicleSnapshot;
+import com.decosegfault.hermes.frontend.VehicleStreamEndpoint;
+import com.decosegfault.hermes.replay.FeedRecorder;
+import com.decosegfault.hermes.replay.ReplayDataFeed;
 import com.decosegfault.hermes.types.SimType;
 import com.decosegfault.hermes.types.VehicleType;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.onebusaway.gtfs.model.*;
 import org.onebusaway.gtfs.serialization.GtfsReader;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.tinylog.Logger;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This is static class that acts as the interface for the simulator.
@@ -60,15 +72,41 @@ public class HermesSim {
     public static double MAX_TIME = 86400;
     static float speed = 10f;
     public static final List<TripData> vehiclesToCreate = new ArrayList<>();
-    public static LiveDataFeed liveDataFeed = new LiveDataFeed();
+    /** source of live data, only created in modes that use the live feed */
+    public static LiveDataFeed liveDataFeed;
+    /** every GTFS feed loaded into the simulation, see {@link FeedSource} */
+    public static List<FeedSource> feeds = new ArrayList<>();
 
     public static FrontendData frontendData;
 
     public static Map<List<String>, String> affectedRoutes = new HashMap<>();
 
+    /** trips finished since the last broadcast */
     public static List<RouteExpectedReal> expectedReals = new ArrayList<>();
 
     public static int frontendCounter = 0;
+    /** ticks between frontend broadcasts, set with -Dhermes.publishInterval */
+    public static final int PUBLISH_INTERVAL = Math.max(1, Integer.getInteger("hermes.publishInterval", 10));
+
+    /** live vs scheduled comparison, only used in adherence mode */
+    public static final ScheduleAdherence adherence = new ScheduleAdherence();
+    /** how late trips finish, per route and hour, for the whole run */
+    public static final OnTimePerformance performance = new OnTimePerformance();
+    /** headways and bunching per route and direction */
+    public static final HeadwayTracker headways = new HeadwayTracker();
+    /** where vehicles have been through the day, for the heatmap tiles */
+    public static final HeatmapAccumulator heatmap = new HeatmapAccumulator();
+    /** where every visible vehicle is, for nearby queries from Atlas and the frontend */
+    public static final VehicleIndex vehicleIndex = new VehicleIndex();
+    /** zones added by the frontend, with the vehicles inside them */
+    public static final ZoneTracker zones = new ZoneTracker();
+    /** circular zones, sent to the frontend as its interest points */
+    private static Map<String, HPVector3> interestPoints = brisbaneOlympics;
+    /** positions of every visible vehicle, refilled before each broadcast for subscription filtering */
+    private static final VehicleSnapshot vehicleSnapshot = new VehicleSnapshot();
+
+    /** reused every tick to move live vehicles without allocating */
+    private static final Vector3 liveTransform = new Vector3();
 
     /**
      * ticks time by x seconds.
@@ -84,16 +122,19 @@ public class HermesSim {
         frontendData = new FrontendData();
 
         vehiclesToCreate.clear();
-        expectedReals.clear();
 
-        if (RouteHandler.simType == SimType.LIVE) {
-            liveDataFeed.update();
-            ConcurrentHashMap<String, AtlasVehicle> slayMap = new ConcurrentHashMap<>();
+        if (RouteHandler.simType.hasLiveVehicles()) {
+            headways.tick(liveDataFeed.clockSeconds());
+            // apply only what changed since the last feed; skipped entirely if the feed hasn't changed
+            if (liveDataFeed.update()) {
+                for (String tripID : liveDataFeed.retiredTrips) {
+                    vehicleMap.remove(tripID);
+                    vehicleIndex.remove(tripID);
+                    headways.remove(tripID);
+                }
 
-            for (Map.Entry<String, VehicleData> entry : liveDataFeed.vehicleDataMap.entrySet()) {
-                String tripID = entry.getKey();
-                if (!vehicleMap.containsKey(tripID)) {
-                    VehicleType type = entry.getValue().vehicleType;
+                for (String tripID : liveDataFeed.addedTrips) {
+                    VehicleType type = liveDataFeed.vehicleDataMap.get(tripID).vehicleType;
                     String routeID = liveDataFeed.tripIDMap.get(tripID);
                     String name = RouteHandler.routes.get(routeID).routeName;
                     String id = RouteHandler.routes.get(routeID).routeID;
@@ -107,20 +148,49 @@ public class HermesSim {
                     }
                     vehicleName.append(": ").append(name).append("\t").append(type);
                     var vehicle = AtlasVehicle.Companion.createFromHermes(type, vehicleName.toString());
-                    slayMap.put(tripID, vehicle);
-                } else {
-                    slayMap.put(tripID, vehicleMap.get(tripID));
+                    vehicleMap.put(tripID, vehicle);
                 }
-                HPVector3 position = entry.getValue().position;
-                Vector3 pos = AtlasUtils.INSTANCE.latLongToAtlas(new Vector3((float) position.getX(), (float) position.getY(), (float) position.getZ()));
-                slayMap.get(tripID).updateTransform(pos);
+
+                if (RouteHandler.simType == SimType.ADHERENCE) {
+                    adherence.update(liveDataFeed);
+                }
+                observeLiveHeadways(liveDataFeed.addedTrips);
+                observeLiveHeadways(liveDataFeed.movedTrips);
+            }
+
+            // trips whose predicted final arrival has passed
+            double clockSeconds = liveDataFeed.clockSeconds();
+            liveDataFeed.collectCompleted(clockSeconds, expectedReals);
+            // the heatmap's day follows the first feed
+            heatmap.rollDay(feeds.get(0).secondOfDay(clockSeconds));
+
+            // dead reckon every live vehicle between feed updates
+            double now = liveDataFeed.clockSeconds();
+            for (Map.Entry<String, VehicleData> entry : liveDataFeed.vehicleDataMap.entrySet()) {
+                AtlasVehicle vehicle = vehicleMap.get(entry.getKey());
+                if (vehicle == null) continue;
+                entry.getValue().trajectory.extrapolate(now, liveTransform);
+                vehicle.updateTransform(liveTransform);
+                vehicleIndex.move(entry.getKey(), liveTransform.x, liveTransform.y);
+                heatmap.add(liveTransform.x, liveTransform.y);
             }
-            vehicleMap = slayMap;
         } else {
+            if (RouteHandler.simType == SimType.HISTORY_DELAYS) {
+                liveDataFeed.pollTripUpdates();
+            }
+
+            headways.tick(time);
+            heatmap.rollDay(time);
             RouteHandler.tripsbyID.values().stream().forEach((trip) -> {
                 trip.tick();
+                if (!trip.vehicle.hidden && trip.shape != null && trip.pathLength > 0) {
+                    headways.observe(trip.routeID, trip.routeVehicleName, trip.inBound, trip.shape.shapeID,
+                        trip.traversedDist / trip.pathLength, time);
+                }
                 if (trip.vehicle.hidden && vehicleMap.containsKey(trip.routeID)) {
                     vehicleMap.remove(trip.routeID);
+                    vehicleIndex.remove(trip.routeID);
+                    headways.remove(trip.routeID);
                 } else if (!trip.vehicle.hidden && !vehicleMap.containsKey(trip.routeID)) {
                     if (trip.vehicle.vehicleType == null) {
                         Logger.warn("Null trip vehicle! {} {}", trip.routeName, trip.routeID);
@@ -154,26 +224,118 @@ public class HermesSim {
                 tripID.getValue().updateTransform(
                     new Vector3((float) trip.vehicle.position.getX(), (float) trip.vehicle.position.getY(), (float) trip.vehicle.position.getZ()));
                 tripID.getValue().setHidden(trip.vehicle.hidden);
+                if (trip.vehicle.hidden) {
+                    vehicleIndex.remove(tripID.getKey());
+                } else {
+                    vehicleIndex.move(tripID.getKey(), trip.vehicle.position.getX(), trip.vehicle.position.getY());
+                    heatmap.add(trip.vehicle.position.getX(), trip.vehicle.position.getY());
+                }
             });
         }
 
+        zones.tick(vehicleIndex);
+        if (zones.takeZonesChanged()) {
+            affectedRoutes = RouteHandler.affectedRoutes(zones.zones());
+            interestPoints = zones.interestPoints();
+            RouteHandler.publishInterest(interestPoints);
+        }
+        ZoneTracker.ZoneUpdate zoneUpdate = zones.takeUpdate();
+        if (zoneUpdate != null) {
+            FrontendEndpoint.sendZones(zoneUpdate);
+        }
+
         // transmit data to the frontend
-        frontendData.setInterestPoints(HermesSim.brisbaneOlympics);
+        frontendData.setInterestPoints(interestPoints);
         frontendData.setBusesInInterest(affectedRoutes);
         frontendData.setRouteExpectedReals(expectedReals);
+        frontendData.setRouteHeadways(headways.getRouteHeadways());
+        frontendData.setBunching(headways.getBunching());
         frontendData.setRouteFrequency(calculateRouteFrequency());
         frontendData.setVehicleTypes(calculateVehicleTypes());
+        if (RouteHandler.simType == SimType.ADHERENCE) {
+            frontendData.setRouteAdherence(adherence.getRouteAdherence());
+        }
 
-        if (frontendCounter++ % 10 == 0) {
+        long nowNanos = System.nanoTime();
+        boolean broadcastDue = frontendCounter++ % PUBLISH_INTERVAL == 0;
+        boolean streamDue = VehicleStreamEndpoint.due(nowNanos);
+        boolean gtfsDue = GtfsRealtimeServlet.wanted(nowNanos);
+        if (broadcastDue || streamDue || gtfsDue) {
+            fillVehicleSnapshot();
+        }
+        if (broadcastDue) {
+            for (RouteExpectedReal expectedReal : expectedReals) {
+                performance.add(expectedReal.getRoute(), expectedReal);
+            }
+            frontendData.setRoutePerformance(performance.getRoutePerformance());
+            frontendData.setVehicles(vehicleSnapshot);
             FrontendEndpoint.broadcast(frontendData);
+            // everything finished since the last broadcast has now been sent
+            expectedReals = new ArrayList<>();
+        }
+        if (streamDue) {
+            VehicleStreamEndpoint.publish(vehicleSnapshot, nowNanos);
+        }
+        if (gtfsDue) {
+            long timestamp = RouteHandler.simType.hasLiveVehicles()
+                ? (long) liveDataFeed.clockSeconds() : System.currentTimeMillis() / 1000;
+            GtfsRealtimeServlet.publish(vehicleSnapshot, timestamp);
         }
     }
 
 
+    /**
+     * Passes the new shape positions of live vehicles to the headway tracker.
+     */
+    private static void observeLiveHeadways(List<String> tripIDs) {
+        for (String tripID : tripIDs) {
+            VehicleData vehicle = liveDataFeed.vehicleDataMap.get(tripID);
+            VehicleTrajectory trajectory = vehicle == null ? null : vehicle.trajectory;
+            if (trajectory == null || !trajectory.onShape || trajectory.shape.length <= 0) continue;
+            RouteData route = RouteHandler.routes.get(liveDataFeed.tripIDMap.get(tripID));
+            TripData trip = RouteHandler.tripsbyID.get(tripID);
+            headways.observe(tripID, route == null ? null : route.routeID, trip == null ? null : trip.inBound,
+                trajectory.shape.shapeID, trajectory.shapeDist / trajectory.shape.length, trajectory.latestTime());
+        }
+    }
+
+    /**
+     * Refills {@link #vehicleSnapshot} with the route, type and Atlas position of every visible vehicle.
+     */
+    private static void fillVehicleSnapshot() {
+        vehicleSnapshot.clear();
+        if (RouteHandler.simType.hasLiveVehicles()) {
+            double now = liveDataFeed.clockSeconds();
+            for (Map.Entry<String, VehicleData> entry : liveDataFeed.vehicleDataMap.entrySet()) {
+                String routeID = liveDataFeed.tripIDMap.get(entry.getKey());
+                String route = RouteHandler.routes.get(routeID).routeID;
+                VehicleData data = entry.getValue();
+                data.trajectory.extrapolate(now, liveTransform);
+                vehicleSnapshot.add(entry.getKey(), routeID, route, data.vehicleType,
+                    liveTransform.x, liveTransform.y, liveTransform.z);
+            }
+        } else {
+            for (TripData trip : RouteHandler.tripsbyID.values()) {
+                if (trip.vehicle.hidden) continue;
+                vehicleSnapshot.add(trip.routeID, trip.routeIDReal, trip.routeVehicleName, trip.routeType,
+                    trip.vehicle.position.getX(), trip.vehicle.position.getY(), trip.vehicle.position.getZ());
+            }
+        }
+    }
+
+    /**
+     * @return the live delay of a trip in seconds in history with delays mode, otherwise 0
+     */
+    public static int tripDelay(TripData trip) {
+        if (RouteHandler.simType != SimType.HISTORY_DELAYS) return 0;
+        DelayIndex delays = liveDataFeed.delays(trip);
+        return delays != null ? delays.tripDelay(trip.denseID) : 0;
+    }
+
     public static Map<String, Integer> calculateRouteFrequency() {
         Map<String, Integer> routeFrequency = new HashMap<>();
 
-        if (RouteHandler.simType == SimType.LIVE) {
+        if (RouteHandler.simType.hasLiveVehicles()) {
             for (Map.Entry<String, VehicleData> entry: liveDataFeed.vehicleDataMap.entrySet()) {
                 String id = RouteHandler.routes.get(liveDataFeed.tripIDMap.get((entry.getKey()))).routeID;
                 if (routeFrequency.containsKey(id)) {
@@ -201,7 +363,7 @@ public class HermesSim {
     public static Map<String, Integer> calculateVehicleTypes() {
         Map<String, Integer> vehicleTypes = new HashMap<>();
 
-        if (RouteHandler.simType == SimType.LIVE) {
+        if (RouteHandler.simType.hasLiveVehicles()) {
             for (Map.Entry<String, VehicleData> entry: liveDataFeed.vehicleDataMap.entrySet()) {
                 String type = entry.getValue().vehicleType.toString();
                 if (vehicleTypes.containsKey(type)) {
@@ -229,7 +391,11 @@ public class HermesSim {
     /**
      * load vehicle routes here.
      * in history mode, routes follow preset start and end times.
-     * in live mode, routes aren't loaded at all; uses live data.
+     * in live mode, the full schedule is loaded too, so live vehicles can follow their shape and be compared
+     * against their scheduled times.
+     * in history with delays mode, routes follow preset start and end times shifted by their live delay.
+     * in adherence mode, the schedule and live feed are both loaded and live vehicles are compared against
+     * their scheduled trip.
      * in sim mode, routes only use their first available start time.
      */
     public static void load(SimType simType) {
@@ -243,53 +409,123 @@ public class HermesSim {
         server.start();
 
         RouteHandler.simType = simType;
-        if (RouteHandler.simType == SimType.LIVE) {
-            read();
-            return;
-        } else {
-            read();
-        }
+        feeds = FeedSource.configured();
+        read();
 
         RouteHandler.sortShapes();
+        RouteHandler.buildShapes();
         RouteHandler.initTrips();
         Logger.warn("Trips Loaded: {}", RouteHandler.tripsbyID.size());
+        affectedRoutes = RouteHandler.affectedRoutes(brisbaneOlympics);
+        RouteHandler.publishNetwork();
+        for (Map.Entry<String, HPVector3> entry : brisbaneOlympics.entrySet()) {
+            HPVector3 point = entry.getValue();
+            zones.add(Zone.circle(entry.getKey(), point.getX(), point.getY(), point.getZ()));
+        }
+
+        if (RouteHandler.simType.hasLiveVehicles() || RouteHandler.simType == SimType.HISTORY_DELAYS) {
+            liveDataFeed = createLiveDataFeed();
+            liveDataFeed.start(RouteHandler.simType.hasLiveVehicles());
+        }
         Logger.info("Linking Hermes-Atlas vehicles");
         Logger.info("GTFS Data Loaded");
     }
 
     /**
-     * This function reads the data from the offline GTFS data.
-     * The gtfs zip located in <project directory>/hermes/assets/hermes is the source of the data;
-     * this file must be overwritten to use user data.
+     * Creates the source of live data.
+     * Replays a recorded log of the first feed instead of the realtime APIs if -Dhermes.replay=path is set
+     * (-Dhermes.replaySpeed sets the speed, default 1x), and records every snapshot of the first feed if
+     * -Dhermes.record=path is set.
+     */
+    private static LiveDataFeed createLiveDataFeed() {
+        LiveDataFeed feed;
+        String replayPath = System.getProperty("hermes.replay");
+        if (replayPath != null) {
+            double replaySpeed = Double.parseDouble(System.getProperty("hermes.replaySpeed", "1"));
+            try {
+                feed = new ReplayDataFeed(Paths.get(replayPath), replaySpeed, feeds.get(0));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Failed to open GTFS-RT replay " + replayPath, e);
+            }
+        } else {
+            feed = new LiveDataFeed(feeds);
+        }
+
+        String recordPath = System.getProperty("hermes.record");
+        if (recordPath != null) {
+            try {
+                feed.setRecorder(new FeedRecorder(Paths.get(recordPath)));
+            } catch (IOException e) {
+                Logger.error("Failed to open GTFS-RT recording {}: {}", recordPath, e);
+            }
+        }
+        return feed;
+    }
+
+    /**
+     * This function reads the data from the offline GTFS data of every feed.
+     * The gtfs zip located in <project directory>/hermes/assets/hermes is the source of the default data;
+     * this file must be overwritten to use user data, or more feeds can be added with -Dhermes.feeds
+     * (see {@link FeedSource}).
+     * Each feed is parsed on its own worker, then merged into RouteHandler one at a time in order, so each
+     * feed's trips get a contiguous range of dense IDs.
      */
     public static void read() {
-        GtfsReader reader = new GtfsReader();
+        int threads = Math.max(1, Math.min(feeds.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService workers = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setNameFormat("Hermes-gtfs-%d").build());
         try {
+            List<Future<GtfsDaoImpl>> stores = new ArrayList<>();
+            for (FeedSource feed : feeds) {
+                stores.add(workers.submit(() -> readFeed(feed)));
+            }
+            for (int i = 0; i < feeds.size(); i++) {
+                merge(feeds.get(i), stores.get(i).get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException("Failed to read GTFS feed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading GTFS feeds", e);
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Parses one feed's GTFS zip into its own store. Safe to run on several feeds at once.
+     */
+    private static GtfsDaoImpl readFeed(FeedSource feed) throws IOException {
+        Logger.info("Reading GTFS feed {} from {}", feed, feed.gtfsPath);
+        GtfsReader reader = new GtfsReader();
+        File gtfsFile = new File(feed.gtfsPath);
+        if (!gtfsFile.isFile()) {
             // gtfs.zip is internal, extract it to /tmp so that the file reader can read it
-            FileHandle tmpPath = Gdx.files.absolute(System.getProperty("java.io.tmpdir") + "/DECOSegfault_hermes_gtfs.zip");
+            FileHandle tmpPath = Gdx.files.absolute(System.getProperty("java.io.tmpdir")
+                + "/DECOSegfault_hermes_" + feed.name + "_gtfs.zip");
             Logger.info("Copying Hermes gtfs.zip to " + tmpPath.path() + "..." + System.getProperty("java.io.tmpdir"));
 
-            FileHandle gtfsZip = Gdx.files.internal("assets/hermes/gtfs.zip");
+            FileHandle gtfsZip = Gdx.files.internal(feed.gtfsPath);
             Logger.info("Copying Hermes gtfs.zip 2 to " + gtfsZip.file().getAbsolutePath());
             gtfsZip.copyTo(tmpPath);
-
-            reader.setInputLocation(tmpPath.file());
-        } catch (IOException noFile) {
-            throw new IllegalArgumentException(noFile);
+            gtfsFile = tmpPath.file();
         }
+        reader.setInputLocation(gtfsFile);
 
         // You can register an entity handler that listens for new objects as they are read.
         // Or you can use the internal entity store, which has references to all the loaded entities.
 
         GtfsDaoImpl store = new GtfsDaoImpl();
         reader.setEntityStore(store);
+        reader.run();
+        reader.close();
+        return store;
+    }
 
-        try {
-            reader.run();
-        } catch (IOException noFile) {
-            throw new IllegalArgumentException("uh oh");
-        }
-
+    /**
+     * Adds one parsed feed to RouteHandler, with every ID qualified by the feed's namespace.
+     */
+    private static void merge(FeedSource feed, GtfsDaoImpl store) {
         // Access entities through the store
         Map<AgencyAndId, Route> routesById = store.getEntitiesByIdForEntityType(
             AgencyAndId.class, Route.class);
@@ -297,39 +533,34 @@ public class HermesSim {
         Map<AgencyAndId, Trip> tripsById = store.getEntitiesByIdForEntityType(
             AgencyAndId.class, Trip.class);
 
-        Map<AgencyAndId, ShapePoint> shapesById = null;
-        Map<AgencyAndId, StopTime> stopTimesById = null;
-
-        if (RouteHandler.simType != SimType.LIVE) {
-            shapesById = store.getEntitiesByIdForEntityType(
-                AgencyAndId.class, ShapePoint.class);
-
-            stopTimesById = store.getEntitiesByIdForEntityType(
-                AgencyAndId.class, StopTime.class);
-        }
+        // shapes and stop times are needed in every mode, live vehicles are dead reckoned along shapes
+        // and matched against the schedule for delays
+        Map<AgencyAndId, ShapePoint> shapesById = store.getEntitiesByIdForEntityType(
+            AgencyAndId.class, ShapePoint.class);
+        Map<AgencyAndId, StopTime> stopTimesById = store.getEntitiesByIdForEntityType(
+            AgencyAndId.class, StopTime.class);
 
+        // a feed's agencies all share one time zone, GTFS requires it
+        Iterator<Agency> agencies = store.getAllAgencies().iterator();
+        if (agencies.hasNext()) feed.setTimeZone(agencies.next().getTimezone());
         for (Route element : routesById.values()) {
-            RouteHandler.addRoute(element);
+            RouteHandler.addRoute(element, feed);
         }
 
-        if (RouteHandler.simType != SimType.LIVE) {
-            for (Trip element : tripsById.values()) {
-                RouteHandler.addTrip(element);
-            }
+        feed.firstDenseID = RouteHandler.tripsByDenseID.size();
+        for (Trip element : tripsById.values()) {
+            RouteHandler.addTrip(element, feed);
+        }
+        feed.tripCount = RouteHandler.tripsByDenseID.size() - feed.firstDenseID;
 
-            for (StopTime element : stopTimesById.values()) {
-                RouteHandler.handleTime(element);
-            }
-            for (ShapePoint element : shapesById.values()) {
-                RouteHandler.addShape(element);
-            }
+        for (StopTime element : stopTimesById.values()) {
+            RouteHandler.handleTime(element, feed);
         }
 
-        try {
-            reader.close();
-        } catch (IOException noFile) {
-            throw new IllegalArgumentException("uh oh");
+        for (ShapePoint element : shapesById.values()) {
+            RouteHandler.addShape(element, feed);
         }
+        Logger.info("Merged GTFS feed {}: {} routes, {} trips", feed, routesById.size(), feed.tripCount);
     }
 
     /**
@@ -351,6 +582,16 @@ public class HermesSim {
      */
     public static void shutdown() {
         server.stop();
+        if (liveDataFeed != null) {
+            liveDataFeed.stop();
+        }
+        if (liveDataFeed != null && liveDataFeed.getRecorder() != null) {
+            try {
+                liveDataFeed.getRecorder().close();
+            } catch (IOException e) {
+                Logger.warn("Failed to close GTFS-RT recording: {}", e);
+            }
+        }
     }
 }
 
@@ -10,120 +10,382 @@
 
 package com.decosegfault.hermes;
 
+import com.badlogic.gdx.math.Vector3;
+import com.decosegfault.atlas.util.AtlasUtils;
 import com.decosegfault.atlas.util.HPVector3;
+import com.decosegfault.hermes.data.ShapeData;
+import com.decosegfault.hermes.data.TripData;
 import com.decosegfault.hermes.data.VehicleData;
+import com.decosegfault.hermes.data.VehicleTrajectory;
+import com.decosegfault.hermes.frontend.RouteExpectedReal;
+import com.decosegfault.hermes.replay.FeedLog;
+import com.decosegfault.hermes.replay.FeedRecorder;
 import com.decosegfault.hermes.types.VehicleType;
 import com.google.transit.realtime.GtfsRealtime;
+import org.tinylog.Logger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.io.InputStream;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Retrieves and stores live vehicle data
+ * Retrieves and stores live vehicle data.
+ * Each feed update is applied as a diff keyed on trip ID, so vehicles that didn't move are skipped
+ * and their VehicleData lives across updates. VehiclePositions are streamed through a
+ * {@link VehiclePositionsDecoder} rather than parsed into protobuf objects. Every live vehicle keeps a {@link VehicleTrajectory}
+ * of its recent positions so it can be dead reckoned between updates.
+ * <p>
+ * Every {@link FeedSource} is polled on its own worker thread once {@link #start(boolean)} is called.
+ * Workers only fetch (and parse TripUpdates), leaving the newest snapshot of each feed pending; {@link #update()}
+ * applies pending snapshots on the Hermes thread, so all the state here is only touched by one thread.
+ * Trip IDs are qualified with their feed's namespace, see {@link FeedSource#qualify(String)}.
+ * <p>
+ * Subclasses can supply the raw feeds from somewhere other than the realtime APIs, see
+ * {@link com.decosegfault.hermes.replay.ReplayDataFeed}.
  *
  * @author Cathy Nguyen
  * @author Lachlan Ellis
  */
 public class LiveDataFeed {
+    /** seconds between VehiclePositions fetches on each worker */
+    private static final double VEHICLE_POLL_INTERVAL = 5.0;
+    /** seconds between TripUpdates fetches on each worker */
+    private static final double TRIP_POLL_INTERVAL = 15.0;
 
-    private final GtfsRealtime.FeedMessage tripFeed;
-    private final URL vehiclesURL;
-    private GtfsRealtime.FeedMessage vehiclePositionsFeed;
+    private final List<FeedState> feeds = new ArrayList<>();
     public HashMap<String, String> tripIDMap = new HashMap<>();
     public Map<String, HPVector3> vehiclePositions = new HashMap<>();
     public Map<String, VehicleData> vehicleDataMap = new HashMap<>();
 
-    public LiveDataFeed() {
-        try {
-            URI vehiclesURI = new URI("https://gtfsrt.api.translink.com.au/api/realtime/SEQ/VehiclePositions");
-            vehiclesURL = vehiclesURI.toURL();
-            vehiclePositionsFeed = GtfsRealtime.FeedMessage.parseFrom(vehiclesURL.openStream());
-
-            URI tripURI = new URI("https://gtfsrt.api.translink.com.au/api/realtime/SEQ/TripUpdates");
-            URL tripURL = tripURI.toURL();
-            tripFeed = GtfsRealtime.FeedMessage.parseFrom(tripURL.openStream());
-        } catch (URISyntaxException | IOException e) {
-            throw new RuntimeException(e);
+    /** trips that appeared in the last applied update */
+    public final List<String> addedTrips = new ArrayList<>();
+    /** trips that already existed and moved in the last applied update */
+    public final List<String> movedTrips = new ArrayList<>();
+    /** trips that were missing from the last applied update and have been removed */
+    public final List<String> retiredTrips = new ArrayList<>();
+
+    /** if not null, every new snapshot of the first feed is appended to this recorder */
+    private FeedRecorder recorder;
+
+    /**
+     * State of one federated feed. Everything but the pending snapshots is only touched by the Hermes thread.
+     */
+    private static class FeedState {
+        final FeedSource source;
+        /** newest snapshots waiting to be applied, set by the worker */
+        final AtomicReference<byte[]> pendingVehicles = new AtomicReference<>();
+        final AtomicReference<GtfsRealtime.FeedMessage> pendingTrips = new AtomicReference<>();
+        /** buffers the VehiclePositions snapshot being applied */
+        final VehiclePositionsDecoder decoder;
+        /** header timestamps of the last snapshots fetched, only touched by whoever polls */
+        long fetchedVehicleTimestamp = -1;
+        long fetchedTripTimestamp = -1;
+        /** header timestamp of the last VehiclePositions snapshot applied */
+        long appliedVehicleTimestamp = -1;
+        /** trips of this feed that are currently live */
+        final Set<String> trips = new HashSet<>();
+        final Set<String> seenTrips = new HashSet<>();
+        /** delays from this feed's TripUpdates, null until the first one arrives */
+        DelayIndex delays;
+        ScheduledExecutorService worker;
+
+        FeedState(FeedSource source) {
+            this.source = source;
+            decoder = new VehiclePositionsDecoder(source.qualify(""));
+        }
+    }
+
+    /**
+     * @param sources feeds to poll, they must already be merged into {@link RouteHandler}
+     */
+    public LiveDataFeed(List<FeedSource> sources) {
+        for (FeedSource source : sources) {
+            feeds.add(new FeedState(source));
         }
-        init();
     }
 
-    public GtfsRealtime.FeedMessage getTripFeed() {
-        return tripFeed;
+    /**
+     * Starts polling every feed on its own worker.
+     *
+     * @param vehicles true to poll VehiclePositions as well as TripUpdates
+     */
+    public void start(boolean vehicles) {
+        if (!pollsInBackground()) return;
+        for (FeedState feed : feeds) {
+            feed.worker = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("Hermes-feed-" + feed.source.name).setDaemon(true).build());
+            if (vehicles && feed.source.vehiclesURL != null) {
+                feed.worker.scheduleWithFixedDelay(() -> pollVehicles(feed), 0,
+                    (long) (VEHICLE_POLL_INTERVAL * 1000), TimeUnit.MILLISECONDS);
+            }
+            if (feed.source.tripsURL != null) {
+                feed.worker.scheduleWithFixedDelay(() -> pollTrips(feed), 0,
+                    (long) (TRIP_POLL_INTERVAL * 1000), TimeUnit.MILLISECONDS);
+            }
+        }
+        Logger.info("Polling {} realtime feeds", feeds.size());
     }
 
-    public GtfsRealtime.FeedMessage getVehiclePositionsFeed() {
-        return vehiclePositionsFeed;
+    /**
+     * Stops every worker.
+     */
+    public void stop() {
+        for (FeedState feed : feeds) {
+            if (feed.worker != null) feed.worker.shutdownNow();
+        }
     }
 
+    /**
+     * @return true if feeds are polled on worker threads, false if they are fetched on the Hermes
+     * thread during {@link #update()}
+     */
+    protected boolean pollsInBackground() {
+        return true;
+    }
 
-    public void update() {
-        try {
-            vehiclePositionsFeed = GtfsRealtime.FeedMessage.parseFrom(vehiclesURL.openStream());
-        } catch (IOException e) {
-            System.out.println("rip");
+    /**
+     * Records every new snapshot of the first feed from now on, see {@link FeedRecorder}.
+     */
+    public void setRecorder(FeedRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public FeedRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * @return the current time in seconds, in the same time base as feed timestamps
+     */
+    public double clockSeconds() {
+        return System.currentTimeMillis() / 1000.0;
+    }
+
+    /**
+     * Fetches the raw bytes of a feed's VehiclePositions.
+     *
+     * @return the raw protobuf, or null if there is nothing new to fetch
+     */
+    protected byte[] fetchVehiclePositions(FeedSource source) throws IOException {
+        return fetch(source.vehiclesURL);
+    }
+
+    /**
+     * Fetches the raw bytes of a feed's TripUpdates.
+     *
+     * @return the raw protobuf, or null if there is nothing new to fetch
+     */
+    protected byte[] fetchTripUpdates(FeedSource source) throws IOException {
+        return fetch(source.tripsURL);
+    }
+
+    private static byte[] fetch(URL url) throws IOException {
+        if (url == null) return null;
+        try (InputStream stream = url.openStream()) {
+            return stream.readAllBytes();
+        }
+    }
+
+    /**
+     * @return delays of the feed a trip belongs to, or null if that feed has no TripUpdates yet
+     */
+    public DelayIndex delays(TripData trip) {
+        for (FeedState feed : feeds) {
+            if (feed.source.ownsDenseID(trip.denseID)) return feed.delays;
+        }
+        return null;
+    }
+
+    /**
+     * @return the feed a trip belongs to, or null if it isn't from any of these feeds
+     */
+    public FeedSource source(TripData trip) {
+        for (FeedState feed : feeds) {
+            if (feed.source.ownsDenseID(trip.denseID)) return feed.source;
         }
-        tripIDMap.clear();
-        storeTripID();
-        vehiclePositions.clear();
-        setVehiclePositions();
-        vehicleDataMap.clear();
-        // Calls tick() on existing VehicleData
-        // If routeID exists in vehicleDataMap, call tick() to updates its position
-        // Otherwise, add new vehicleDataMap entry
-        for (Map.Entry<String, HPVector3> entry : vehiclePositions.entrySet()) {
-            VehicleData vehicleData;
-            String routeID = tripIDMap.get(entry.getKey());
-            if (RouteHandler.routes.get(routeID) != null) {
-                String tripID = entry.getKey();
-                if (vehicleDataMap.containsKey(entry.getKey())) {
-                    VehicleData existingVehicleData = vehicleDataMap.get(tripID);
-                    existingVehicleData.tick(vehiclePositions.get(tripID));
-                } else {
-                    VehicleType vehicleType = RouteHandler.routes.get(routeID).routeType;
-                    vehicleData = new VehicleData(vehicleType);
-                    vehicleData.position = vehiclePositions.get(tripID);
-                    vehicleDataMap.put(tripID, vehicleData);
-                }
+        return null;
+    }
+
+    /**
+     * Turns predicted final arrivals from every feed that are now in the past into RouteExpectedReals.
+     * See {@link DelayIndex#collectCompleted(double, List)}.
+     */
+    public void collectCompleted(double clockSeconds, List<RouteExpectedReal> out) {
+        for (FeedState feed : feeds) {
+            if (feed.delays != null) feed.delays.collectCompleted(clockSeconds, out);
+        }
+    }
+
+    /**
+     * Applies the newest snapshot of every feed as a diff against the current state.
+     * New trips are inserted, moved trips are updated in place and missing trips are retired; see
+     * {@link #addedTrips}, {@link #movedTrips} and {@link #retiredTrips} for what changed.
+     * Pending TripUpdates are ingested too.
+     *
+     * @return true if any VehiclePositions snapshot was applied, false if no feed has anything new
+     */
+    public boolean update() {
+        addedTrips.clear();
+        movedTrips.clear();
+        retiredTrips.clear();
+
+        boolean applied = false;
+        for (FeedState feed : feeds) {
+            if (!pollsInBackground()) {
+                pollVehicles(feed);
+                pollTrips(feed);
+            }
+            ingestTripUpdates(feed);
+            byte[] snapshot = feed.pendingVehicles.getAndSet(null);
+            if (snapshot == null) continue;
+            try {
+                feed.decoder.decode(snapshot);
+            } catch (IOException e) {
+                Logger.warn("Failed to decode vehicle positions from {}: {}", feed.source, e);
+                continue;
             }
+            applied |= applyVehiclePositions(feed);
         }
+        return applied;
     }
 
-    private void init() {
-        storeTripID();
-        setVehiclePositions();
-        storeVehicleData();
+    /**
+     * Ingests pending TripUpdates on their own, for modes that need delays but not live vehicles.
+     *
+     * @return true if a new TripUpdates snapshot was ingested into any feed's delays
+     */
+    public boolean pollTripUpdates() {
+        boolean ingested = false;
+        for (FeedState feed : feeds) {
+            if (!pollsInBackground()) pollTrips(feed);
+            ingested |= ingestTripUpdates(feed);
+        }
+        return ingested;
+    }
+
+    /**
+     * Fetches a feed's VehiclePositions, leaving it pending if its header timestamp is new.
+     */
+    private void pollVehicles(FeedState feed) {
+        try {
+            byte[] payload = fetchVehiclePositions(feed.source);
+            if (payload == null) return;
+            long timestamp = VehiclePositionsDecoder.headerTimestamp(payload);
+            if (timestamp == feed.fetchedVehicleTimestamp) return;
+            feed.fetchedVehicleTimestamp = timestamp;
+            if (recorder != null && feed == feeds.get(0)) {
+                recorder.record(FeedLog.VEHICLE_POSITIONS, timestamp, payload);
+            }
+            feed.pendingVehicles.set(payload);
+        } catch (IOException e) {
+            Logger.warn("Failed to fetch vehicle positions from {}: {}", feed.source, e);
+        }
     }
 
-    private void storeTripID() {
-        for (GtfsRealtime.FeedEntity entity : vehiclePositionsFeed.getEntityList()) {
-            tripIDMap.put(entity.getVehicle().getTrip().getTripId(), entity.getVehicle().getTrip().getRouteId());
+    /**
+     * Fetches and parses a feed's TripUpdates, leaving it pending if it is new.
+     */
+    private void pollTrips(FeedState feed) {
+        try {
+            byte[] payload = fetchTripUpdates(feed.source);
+            if (payload == null) return;
+            GtfsRealtime.FeedMessage snapshot = GtfsRealtime.FeedMessage.parseFrom(payload);
+            long timestamp = snapshot.getHeader().getTimestamp();
+            if (timestamp == feed.fetchedTripTimestamp) return;
+            feed.fetchedTripTimestamp = timestamp;
+            if (recorder != null && feed == feeds.get(0)) {
+                recorder.record(FeedLog.TRIP_UPDATES, timestamp, payload);
+            }
+            feed.pendingTrips.set(snapshot);
+        } catch (IOException e) {
+            Logger.warn("Failed to fetch trip updates from {}: {}", feed.source, e);
         }
     }
 
-    private void setVehiclePositions() {
-        for (GtfsRealtime.FeedEntity entity : vehiclePositionsFeed.getEntityList()) {
-            String tripID = entity.getVehicle().getTrip().getTripId();
-            double latitude = entity.getVehicle().getPosition().getLatitude();
-            double longitude = entity.getVehicle().getPosition().getLongitude();
-            HPVector3 position = new HPVector3(latitude, longitude, 0.0);
-            vehiclePositions.put(tripID, position);
+    /**
+     * Ingests a feed's pending TripUpdates into its delays.
+     *
+     * @return true if a new snapshot was ingested
+     */
+    private boolean ingestTripUpdates(FeedState feed) {
+        GtfsRealtime.FeedMessage snapshot = feed.pendingTrips.getAndSet(null);
+        if (snapshot == null) return false;
+        if (feed.delays == null) {
+            feed.delays = new DelayIndex(feed.source);
         }
+        return feed.delays.ingest(snapshot);
     }
 
-    private void storeVehicleData() {
-        for (Map.Entry<String, HPVector3> entry : vehiclePositions.entrySet()) {
-            String tripID = entry.getKey();
-            String routeID = tripIDMap.get(tripID);
-            if (RouteHandler.routes.get(routeID) != null) {
-                VehicleType routeType = RouteHandler.routes.get(routeID).routeType;
-                VehicleData vehicleData = new VehicleData(routeType);
-                vehicleData.position = entry.getValue();
+    /**
+     * Applies the VehiclePositions snapshot in a feed's decoder as a diff against the current state of
+     * the feed. Only trips from the same feed are retired.
+     *
+     * @return true if anything was applied, false if the feed header timestamp hasn't changed
+     */
+    private boolean applyVehiclePositions(FeedState feed) {
+        VehiclePositionsDecoder decoder = feed.decoder;
+        long timestamp = decoder.headerTimestamp();
+        if (timestamp == feed.appliedVehicleTimestamp) return false;
+        feed.appliedVehicleTimestamp = timestamp;
+
+        feed.seenTrips.clear();
+
+        for (int i = 0; i < decoder.size(); i++) {
+            // IDs come out of the decoder already qualified
+            String tripID = decoder.tripID(i);
+            String routeID = decoder.routeID(i);
+            if (RouteHandler.routes.get(routeID) == null) continue;
+            feed.seenTrips.add(tripID);
+
+            double latitude = decoder.latitude(i);
+            double longitude = decoder.longitude(i);
+            double sampleTime = decoder.timestamp(i) > 0 ? decoder.timestamp(i) : timestamp;
+            VehicleData vehicleData = vehicleDataMap.get(tripID);
+            if (vehicleData == null) {
+                VehicleType vehicleType = RouteHandler.routes.get(routeID).routeType;
+                vehicleData = new VehicleData(vehicleType);
+                vehicleData.position.set(latitude, longitude, 0.0);
+                vehicleData.trajectory = new VehicleTrajectory(shapeForTrip(tripID));
                 vehicleDataMap.put(tripID, vehicleData);
+                vehiclePositions.put(tripID, vehicleData.position);
+                tripIDMap.put(tripID, routeID);
+                feed.trips.add(tripID);
+                addedTrips.add(tripID);
+            } else if (vehicleData.moveTo(latitude, longitude, 0.0)) {
+                movedTrips.add(tripID);
+            }
+
+            // stationary vehicles still get a sample, so their speed decays to zero
+            if (sampleTime > vehicleData.trajectory.latestTime()) {
+                Vector3 atlas = AtlasUtils.INSTANCE.latLongToAtlas(latitude, longitude, 0.0);
+                vehicleData.trajectory.push(atlas.x, atlas.y, sampleTime);
             }
         }
+
+        // retire vehicles of this feed that have dropped out of it
+        Iterator<String> iterator = feed.trips.iterator();
+        while (iterator.hasNext()) {
+            String tripID = iterator.next();
+            if (feed.seenTrips.contains(tripID)) continue;
+            iterator.remove();
+            vehicleDataMap.remove(tripID);
+            vehiclePositions.remove(tripID);
+            tripIDMap.remove(tripID);
+            retiredTrips.add(tripID);
+        }
+        return true;
+    }
+
+    /**
+     * @return the shape of a scheduled trip, or null if the trip or its shape is unknown
+     */
+    private static ShapeData shapeForTrip(String tripID) {
+        TripData trip = RouteHandler.tripsbyID.get(tripID);
+        return trip != null ? trip.shape : null;
     }
 }
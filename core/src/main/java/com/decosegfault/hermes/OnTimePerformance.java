@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes;
+
+import com.decosegfault.hermes.frontend.RouteExpectedReal;
+import com.decosegfault.hermes.frontend.RoutePerformance;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Accumulates how late every trip finished into a {@link DeviationHistogram} per route and scheduled hour,
+ * for the whole run. Routes are keyed on their short name, like route frequency and subscriptions, rather
+ * than the trip headsign in {@link RouteExpectedReal#getRouteName()}. Memory only grows with the number of
+ * routes.
+ * <p>
+ * Per route figures merge the route's hours, and are only worked out again for routes with new trips.
+ * Written on the Hermes thread and read by {@link com.decosegfault.hermes.frontend.PerformanceServlet}, so
+ * every method is synchronized.
+ *
+ * @author Cathy Nguyen
+ */
+public class OnTimePerformance {
+    private static final double DAY = 86400;
+    private static final int HOURS = 24;
+
+    /** histogram per hour of scheduled arrival, by route name */
+    private final Map<String, DeviationHistogram[]> routes = new HashMap<>();
+    /** routes with trips since the last rebuild */
+    private final Set<String> changed = new HashSet<>();
+    private Map<String, RoutePerformance> routePerformance = Collections.emptyMap();
+
+    /**
+     * Adds one finished trip.
+     *
+     * @param route short name of the trip's route
+     */
+    public synchronized void add(String route, RouteExpectedReal expectedReal) {
+        double deviation = expectedReal.getActualTime() - expectedReal.getExpectedTime();
+        // GTFS times run past midnight for late trips, while the clock wraps
+        if (deviation < -DAY / 2) deviation += DAY;
+        if (deviation > DAY / 2) deviation -= DAY;
+        int hour = (int) (expectedReal.getExpectedTime() / 3600) % HOURS;
+        if (hour < 0) hour += HOURS;
+
+        DeviationHistogram[] hours = routes.computeIfAbsent(route, k -> new DeviationHistogram[HOURS]);
+        if (hours[hour] == null) hours[hour] = new DeviationHistogram();
+        hours[hour].add(deviation);
+        changed.add(route);
+    }
+
+    /**
+     * @return performance of every route over all hours. The map is only rebuilt when trips were added, so
+     * the same map means nothing changed.
+     */
+    public synchronized Map<String, RoutePerformance> getRoutePerformance() {
+        if (changed.isEmpty()) return routePerformance;
+        Map<String, RoutePerformance> rebuilt = new HashMap<>(routePerformance);
+        for (String route : changed) {
+            rebuilt.put(route, new RoutePerformance(merge(routes.get(route))));
+        }
+        changed.clear();
+        routePerformance = rebuilt;
+        return rebuilt;
+    }
+
+    /**
+     * @return performance of one route by hour of scheduled arrival, only hours with trips, or null if the
+     * route has no trips
+     */
+    public synchronized Map<Integer, RoutePerformance> hours(String route) {
+        DeviationHistogram[] hours = routes.get(route);
+        if (hours == null) return null;
+        Map<Integer, RoutePerformance> byHour = new TreeMap<>();
+        for (int hour = 0; hour < HOURS; hour++) {
+            if (hours[hour] != null) byHour.put(hour, new RoutePerformance(hours[hour]));
+        }
+        return byHour;
+    }
+
+    /** @return performance of every route together, or null before any trip has finished */
+    public synchronized RoutePerformance overall() {
+        DeviationHistogram total = new DeviationHistogram();
+        for (DeviationHistogram[] hours : routes.values()) {
+            total.merge(merge(hours));
+        }
+        // an empty histogram has NaN percentiles, which JSON can't hold
+        return total.count() == 0 ? null : new RoutePerformance(total);
+    }
+
+    private static DeviationHistogram merge(DeviationHistogram[] hours) {
+        DeviationHistogram merged = new DeviationHistogram();
+        for (DeviationHistogram hour : hours) {
+            if (hour != null) merged.merge(hour);
+        }
+        return merged;
+    }
+}
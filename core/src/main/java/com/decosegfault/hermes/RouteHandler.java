@@ -12,11 +12,14 @@ package com.decosegfault.hermes;
 
 import com.badlogic.gdx.math.Vector3;
 import com.decosegfault.atlas.util.AtlasUtils;
-import com.decosegfault.atlas.util.HPVector2;
 import com.decosegfault.atlas.util.HPVector3;
 import com.decosegfault.hermes.data.RouteData;
+import com.decosegfault.hermes.data.ShapeData;
 import com.decosegfault.hermes.data.TripData;
+import com.decosegfault.hermes.frontend.NetworkServlet;
+import com.decosegfault.hermes.frontend.PolylineEncoder;
 import com.decosegfault.hermes.types.SimType;
+import com.google.gson.Gson;
 import org.onebusaway.gtfs.model.Route;
 import org.onebusaway.gtfs.model.ShapePoint;
 import org.onebusaway.gtfs.model.StopTime;
@@ -40,6 +43,17 @@ public class RouteHandler {
 
     static Map<String, TripData> tripsbyID = new HashMap<>();
 
+    /** trips by dense ID, see {@link TripData#denseID} */
+    static List<TripData> tripsByDenseID = new ArrayList<>();
+
+    /** shapes by shape ID, built once all shape points are read */
+    static Map<String, ShapeData> shapes = new HashMap<>();
+    /** which shapes pass through each part of the network, built with the shapes */
+    static CoverageIndex coverage;
+
+    /** shape points waiting for {@link #buildShapes()} */
+    private static Map<String, List<ShapePoint>> shapePoints = new HashMap<>();
+
     // Arbitrary speed lol
     public static float vehicleSpeed = 5;
 
@@ -48,13 +62,14 @@ public class RouteHandler {
      * This function processes a route instance into the hashmap
      *
      * @param route The RouteData instance being processed.
+     * @param feed The feed the route came from, its namespace is prefixed to the route ID and short name.
      */
-    public static void addRoute(Route route) {
+    public static void addRoute(Route route, FeedSource feed) {
         RouteData newRoute = new RouteData(route.getType());
-        newRoute.routeID = route.getShortName();
+        newRoute.routeID = feed.qualify(route.getShortName());
         newRoute.routeName = route.getLongName();
 
-        routes.put(route.getId().getId(), newRoute);
+        routes.put(feed.qualify(route.getId().getId()), newRoute);
     }
 
     /**
@@ -62,47 +77,41 @@ public class RouteHandler {
      * Also sets up the shapes map with each shape ID.
      *
      * @param trip The TripData instance being processed.
+     * @param feed The feed the trip came from, its namespace is prefixed to all IDs and the route short name.
      */
-    public static void addTrip(Trip trip) {
-        TripData newTrip = new TripData(routes.get(trip.getRoute().getId().getId()).routeType, trip.getDirectionId());
-        newTrip.routeID = trip.getId().getId();
-        newTrip.routeIDReal = trip.getRoute().getId().getId();
+    public static void addTrip(Trip trip, FeedSource feed) {
+        String routeID = feed.qualify(trip.getRoute().getId().getId());
+        TripData newTrip = new TripData(routes.get(routeID).routeType, trip.getDirectionId());
+        newTrip.routeID = feed.qualify(trip.getId().getId());
+        newTrip.routeIDReal = routeID;
         newTrip.routeName = trip.getTripHeadsign();
-        newTrip.routeVehicleName = trip.getRoute().getShortName();
+        newTrip.routeVehicleName = feed.qualify(trip.getRoute().getShortName());
 
         if (trip.getShapeId() != null) {
-            if (!tripsByShape.containsKey(trip.getShapeId().getId())) {
-                tripsByShape.put(trip.getShapeId().getId(), new ArrayList<>());
+            String shapeID = feed.qualify(trip.getShapeId().getId());
+            if (!tripsByShape.containsKey(shapeID)) {
+                tripsByShape.put(shapeID, new ArrayList<>());
             }
-            tripsByShape.get(trip.getShapeId().getId()).add(newTrip);
+            tripsByShape.get(shapeID).add(newTrip);
         }
-        tripsbyID.put(trip.getId().getId(), newTrip);
+        tripsbyID.put(newTrip.routeID, newTrip);
+        newTrip.denseID = tripsByDenseID.size();
+        tripsByDenseID.add(newTrip);
     }
 
     /**
      * This function processes a shape instance into all relevant trips.
      *
      * @param point The ShapePoint instance being processed.
+     * @param feed The feed the shape came from, its namespace is prefixed to the shape ID.
      */
-    public static void addShape(ShapePoint point) {
-        for (TripData trip : tripsByShape.get(point.getShapeId().getId())) {
+    public static void addShape(ShapePoint point, FeedSource feed) {
+        String shapeID = feed.qualify(point.getShapeId().getId());
+        shapePoints.computeIfAbsent(shapeID, k -> new ArrayList<>()).add(point);
+        for (TripData trip : tripsByShape.getOrDefault(shapeID, Collections.emptyList())) {
             Vector3 tempVector2 = new Vector3((float) point.getLat(), (float) point.getLon(), 0);
             Vector3 tempVector = AtlasUtils.INSTANCE.latLongToAtlas(tempVector2);
-            HPVector2 pointPos = new HPVector2(tempVector.x, tempVector.y);
             trip.routeMap.add(new HPVector3(tempVector.x, tempVector.y, point.getSequence()));
-
-            // COMPARE this TRIP against each BRISBANE OLYMPICS EVENT
-            for (Map.Entry<String, HPVector3> entry : HermesSim.brisbaneOlympics.entrySet()) {
-                HPVector2 stadiumPos = new HPVector2(entry.getValue().getX(), entry.getValue().getY());
-                // remember z is the radius
-                if (pointPos.dst(stadiumPos) <= entry.getValue().getZ()) {
-                    // yeah nah we got an affected route didn't we
-                    List<String> routeList = new ArrayList<>();
-                    routeList.add(entry.getKey());
-                    routeList.add(trip.routeName);
-                    HermesSim.affectedRoutes.put(routeList, trip.routeVehicleName);
-                }
-            }
         }
     }
 
@@ -110,16 +119,19 @@ public class RouteHandler {
      * This function adds the start and end time for all processed trips.
      *
      * @param time The StopTime instance being processed.
+     * @param feed The feed the stop time came from, its namespace is prefixed to the trip ID.
      */
-    public static void handleTime(StopTime time) {
-        if (tripsbyID.containsKey(time.getTrip().getId().getId())) {
-            TripData trip = tripsbyID.get(time.getTrip().getId().getId());
+    public static void handleTime(StopTime time, FeedSource feed) {
+        String tripID = feed.qualify(time.getTrip().getId().getId());
+        if (tripsbyID.containsKey(tripID)) {
+            TripData trip = tripsbyID.get(tripID);
             if (time.getStopSequence() == 1) {
                 trip.startTime = time.getDepartureTime();
                 trip.previousTime = time.getDepartureTime();
             }
             if (time.getArrivalTime() > trip.endTime) {
                 trip.endTime = time.getArrivalTime();
+                trip.lastStopSequence = time.getStopSequence();
             }
         }
     }
@@ -136,6 +148,112 @@ public class RouteHandler {
         }
     }
 
+    /**
+     * Builds the shared ShapeData for every shape read and links it to the trips that use it.
+     */
+    public static void buildShapes() {
+        for (Map.Entry<String, List<ShapePoint>> entry : shapePoints.entrySet()) {
+            List<ShapePoint> points = entry.getValue();
+            points.sort(Comparator.comparingInt(ShapePoint::getSequence));
+            double[] lats = new double[points.size()];
+            double[] longs = new double[points.size()];
+            for (int i = 0; i < points.size(); i++) {
+                lats[i] = points.get(i).getLat();
+                longs[i] = points.get(i).getLon();
+            }
+            ShapeData shape = new ShapeData(entry.getKey(), lats, longs);
+            shapes.put(entry.getKey(), shape);
+            for (TripData trip : tripsByShape.getOrDefault(entry.getKey(), Collections.emptyList())) {
+                trip.shape = shape;
+            }
+        }
+        shapePoints.clear();
+        coverage = new CoverageIndex(shapes.values());
+    }
+
+    /**
+     * Finds the routes passing through each zone using the coverage index.
+     *
+     * @param zones name to lat, long and radius in metres (in z), like HermesSim.brisbaneOlympics
+     * @return [zone name, trip headsign] to route short name, for every trip with a shape in a zone
+     */
+    public static Map<List<String>, String> affectedRoutes(Map<String, HPVector3> zones) {
+        List<Zone> circles = new ArrayList<>();
+        for (Map.Entry<String, HPVector3> entry : zones.entrySet()) {
+            HPVector3 zone = entry.getValue();
+            circles.add(Zone.circle(entry.getKey(), zone.getX(), zone.getY(), zone.getZ()));
+        }
+        return affectedRoutes(circles);
+    }
+
+    /**
+     * Finds the routes passing through each zone using the coverage index. Polygons are looked up by the
+     * circle around them, then each shape found is checked against the polygon itself.
+     *
+     * @return [zone name, trip headsign] to route short name, for every trip with a shape in a zone
+     */
+    public static Map<List<String>, String> affectedRoutes(Collection<Zone> zones) {
+        Map<List<String>, String> affected = new HashMap<>();
+        for (Zone zone : zones) {
+            coverage.shapesWithin(zone.centreX(), zone.centreY(), zone.radius(), shape -> {
+                if (!zone.isCircle() && !zone.crosses(shape)) return;
+                for (TripData trip : tripsByShape.getOrDefault(shape.shapeID, Collections.emptyList())) {
+                    affected.put(Arrays.asList(zone.name, trip.routeName), trip.routeVehicleName);
+                }
+            });
+        }
+        return affected;
+    }
+
+    /**
+     * Publishes the static network to the frontend's /network endpoints: every route with the shapes its
+     * trips use, every shape as an encoded polyline, and the interest points. Call once everything is loaded.
+     */
+    public static void publishNetwork() {
+        Map<String, Set<String>> routeShapes = new HashMap<>();
+        for (TripData trip : tripsbyID.values()) {
+            if (trip.shape == null) continue;
+            routeShapes.computeIfAbsent(trip.routeIDReal, k -> new TreeSet<>()).add(trip.shape.shapeID);
+        }
+        List<Map<String, Object>> routeList = new ArrayList<>();
+        for (Map.Entry<String, RouteData> entry : routes.entrySet()) {
+            Map<String, Object> route = new LinkedHashMap<>();
+            route.put("id", entry.getKey());
+            route.put("shortName", entry.getValue().routeID);
+            route.put("longName", entry.getValue().routeName);
+            route.put("type", entry.getValue().routeType);
+            route.put("shapes", routeShapes.getOrDefault(entry.getKey(), Collections.emptySet()));
+            routeList.add(route);
+        }
+
+        Map<String, String> polylines = new HashMap<>();
+        for (ShapeData shape : shapes.values()) {
+            polylines.put(shape.shapeID, PolylineEncoder.encode(shape.lats, shape.longs));
+        }
+
+        Gson gson = new Gson();
+        NetworkServlet.publish("routes", gson.toJson(routeList));
+        NetworkServlet.publish("shapes", gson.toJson(polylines));
+        publishInterest(HermesSim.brisbaneOlympics);
+    }
+
+    /**
+     * Publishes the interest points to /network/interest, again whenever the zones change.
+     *
+     * @param interestPoints name to lat, long and radius in metres (in z)
+     */
+    public static void publishInterest(Map<String, HPVector3> interestPoints) {
+        Map<String, Map<String, Double>> points = new HashMap<>();
+        for (Map.Entry<String, HPVector3> entry : interestPoints.entrySet()) {
+            Map<String, Double> point = new LinkedHashMap<>();
+            point.put("lat", entry.getValue().getX());
+            point.put("long", entry.getValue().getY());
+            point.put("radius", entry.getValue().getZ());
+            points.put(entry.getKey(), point);
+        }
+        NetworkServlet.publish("interest", new Gson().toJson(points));
+    }
+
     /** testing only */
     public static void logRoutes() {
         for (RouteData element : routes.values()) {
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes;
+
+import com.decosegfault.hermes.data.TripData;
+import com.decosegfault.hermes.data.VehicleData;
+import com.decosegfault.hermes.data.VehicleTrajectory;
+import com.decosegfault.hermes.frontend.RouteAdherence;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Joins live vehicles to their scheduled trips by trip ID and works out how far off schedule each one is.
+ * <p>
+ * A vehicle's deviation comes from the TripUpdates delay for its trip if there is one, otherwise from
+ * how far along its shape it is compared with where the timetable says it should be.
+ *
+ * @author Cathy Nguyen
+ * @author Lachlan Ellis
+ */
+public class ScheduleAdherence {
+    /** vehicles more than this many seconds ahead of schedule are early */
+    public static final double EARLY_THRESHOLD = -60;
+    /** vehicles more than this many seconds behind schedule are late */
+    public static final double LATE_THRESHOLD = 300;
+    private static final double DAY = 86400;
+
+    /** latest aggregates, by route short name */
+    private Map<String, RouteAdherence> routeAdherence = new HashMap<>();
+
+    /**
+     * Recomputes the deviation of every live vehicle and the per-route aggregates.
+     * Sets {@link VehicleData#scheduleDeviation} on each vehicle, NaN if it has no scheduled trip.
+     */
+    public void update(LiveDataFeed feed) {
+        double clockSeconds = feed.clockSeconds();
+        Map<String, RouteAdherence> aggregates = new HashMap<>();
+
+        for (Map.Entry<String, VehicleData> entry : feed.vehicleDataMap.entrySet()) {
+            VehicleData vehicle = entry.getValue();
+            TripData trip = RouteHandler.tripsbyID.get(entry.getKey());
+            if (trip == null || trip.endTime < 0) {
+                vehicle.scheduleDeviation = Double.NaN;
+                continue;
+            }
+
+            // each feed's schedule is in its own agency's time zone
+            FeedSource source = feed.source(trip);
+            double timeOfDay = source != null ? source.secondOfDay(clockSeconds)
+                : FeedSource.secondOfDay(clockSeconds, FeedSource.DEFAULT_TIME_ZONE);
+            double deviation = deviation(trip, vehicle.trajectory, feed.delays(trip), timeOfDay);
+            vehicle.scheduleDeviation = deviation;
+            if (Double.isNaN(deviation)) continue;
+
+            aggregates.computeIfAbsent(trip.routeVehicleName, k -> new RouteAdherence())
+                .add(deviation, deviation < EARLY_THRESHOLD, deviation > LATE_THRESHOLD);
+        }
+        routeAdherence = aggregates;
+    }
+
+    /** @return the aggregates from the last update, by route short name */
+    public Map<String, RouteAdherence> getRouteAdherence() {
+        return routeAdherence;
+    }
+
+    /**
+     * @return seconds behind schedule (negative if early), or NaN if it can't be worked out
+     */
+    private static double deviation(TripData trip, VehicleTrajectory trajectory, DelayIndex delays,
+                                    double timeOfDay) {
+        if (delays != null && delays.hasDelay(trip.denseID)) {
+            return delays.tripDelay(trip.denseID);
+        }
+        if (trajectory == null || !trajectory.onShape || trajectory.shape.length <= 0) {
+            return Double.NaN;
+        }
+        double progress = trajectory.shapeDist / trajectory.shape.length;
+        double scheduled = trip.startTime + progress * (trip.endTime - trip.startTime);
+        double deviation = timeOfDay - scheduled;
+        // GTFS times run past midnight for late trips, while the clock wraps
+        if (deviation < -DAY / 2) deviation += DAY;
+        if (deviation > DAY / 2) deviation -= DAY;
+        return deviation;
+    }
+}
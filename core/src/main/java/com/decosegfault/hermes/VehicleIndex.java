@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Spatial hash of where every visible vehicle is, in Atlas coords, for radius, bounding box and k nearest
+ * queries without scanning every vehicle.
+ * <p>
+ * HermesSim moves vehicles in it every tick as it updates their transforms. A vehicle that stays in its
+ * cell only has its coords overwritten, so most ticks cost no allocation; it is only moved between cells
+ * when it crosses into a new one. Vehicles are stored in slots reused through a free list, and each cell
+ * keeps an array of the slots in it.
+ * <p>
+ * Written on the Hermes thread and queried from Atlas and the frontend, so every method is synchronized.
+ *
+ * @author Cathy Nguyen
+ */
+public class VehicleIndex {
+    /** cell size in Atlas units */
+    public static final double CELL_SIZE = 256;
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private final Map<Long, Cell> cells = new HashMap<>();
+
+    // per slot
+    private String[] tripIDs = new String[1024];
+    private double[] xs = new double[1024];
+    private double[] ys = new double[1024];
+    private int[] cellXs = new int[1024];
+    private int[] cellYs = new int[1024];
+    /** where the slot is in its cell's array */
+    private int[] cellIndex = new int[1024];
+    private int slotCount = 0;
+
+    /** range of cells that have held a vehicle since the last clear, bounds every search */
+    private int minCellX = Integer.MAX_VALUE;
+    private int minCellY = Integer.MAX_VALUE;
+    private int maxCellX = Integer.MIN_VALUE;
+    private int maxCellY = Integer.MIN_VALUE;
+
+    /** called with each vehicle a query finds */
+    public interface Visitor {
+        void visit(String tripID, double x, double y);
+    }
+
+    /** slots in one cell */
+    private static final class Cell {
+        int[] slots = new int[8];
+        int size = 0;
+    }
+
+    /**
+     * Adds a vehicle, or moves it if it is already in the index.
+     */
+    public synchronized void move(String tripID, double x, double y) {
+        int cellX = cellOf(x);
+        int cellY = cellOf(y);
+        Integer slot = slots.get(tripID);
+        if (slot == null) {
+            slot = allocate(tripID);
+            insert(slot, cellX, cellY);
+        } else if (cellXs[slot] != cellX || cellYs[slot] != cellY) {
+            detach(slot);
+            insert(slot, cellX, cellY);
+        }
+        xs[slot] = x;
+        ys[slot] = y;
+    }
+
+    /**
+     * Removes a vehicle, if it is in the index.
+     */
+    public synchronized void remove(String tripID) {
+        Integer slot = slots.remove(tripID);
+        if (slot == null) return;
+        detach(slot);
+        tripIDs[slot] = null;
+        freeSlots.add(slot);
+    }
+
+    /** Removes every vehicle */
+    public synchronized void clear() {
+        slots.clear();
+        freeSlots.clear();
+        cells.clear();
+        Arrays.fill(tripIDs, null);
+        slotCount = 0;
+        minCellX = Integer.MAX_VALUE;
+        minCellY = Integer.MAX_VALUE;
+        maxCellX = Integer.MIN_VALUE;
+        maxCellY = Integer.MIN_VALUE;
+    }
+
+    /** @return number of vehicles in the index */
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * @return trip IDs of every vehicle within radius (Atlas units) of a point
+     */
+    public synchronized List<String> withinRadius(double x, double y, double radius) {
+        List<String> found = new ArrayList<>();
+        double radiusSq = radius * radius;
+        // cells outside the occupied range are empty, so a huge radius costs no more than the whole index
+        int lastY = Math.min(cellOf(y + radius), maxCellY);
+        int lastX = Math.min(cellOf(x + radius), maxCellX);
+        for (int cellY = Math.max(cellOf(y - radius), minCellY); cellY <= lastY; cellY++) {
+            for (int cellX = Math.max(cellOf(x - radius), minCellX); cellX <= lastX; cellX++) {
+                Cell cell = cells.get(key(cellX, cellY));
+                if (cell == null) continue;
+                for (int i = 0; i < cell.size; i++) {
+                    int slot = cell.slots[i];
+                    if (distSq(slot, x, y) <= radiusSq) found.add(tripIDs[slot]);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return trip IDs of every vehicle inside a bounding box, in Atlas coords
+     */
+    public List<String> withinBox(double minX, double minY, double maxX, double maxY) {
+        List<String> found = new ArrayList<>();
+        forEachInBox(minX, minY, maxX, maxY, (tripID, x, y) -> found.add(tripID));
+        return found;
+    }
+
+    /**
+     * Visits every vehicle inside a bounding box, in Atlas coords, with its position. The index is locked
+     * while visiting, so the visitor mustn't take long.
+     */
+    public synchronized void forEachInBox(double minX, double minY, double maxX, double maxY, Visitor visitor) {
+        int lastY = Math.min(cellOf(maxY), maxCellY);
+        int lastX = Math.min(cellOf(maxX), maxCellX);
+        for (int cellY = Math.max(cellOf(minY), minCellY); cellY <= lastY; cellY++) {
+            for (int cellX = Math.max(cellOf(minX), minCellX); cellX <= lastX; cellX++) {
+                Cell cell = cells.get(key(cellX, cellY));
+                if (cell == null) continue;
+                for (int i = 0; i < cell.size; i++) {
+                    int slot = cell.slots[i];
+                    if (xs[slot] >= minX && xs[slot] <= maxX && ys[slot] >= minY && ys[slot] <= maxY) {
+                        visitor.visit(tripIDs[slot], xs[slot], ys[slot]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the k vehicles nearest a point, searching rings of cells outwards until no unsearched cell
+     * could hold anything closer.
+     *
+     * @return trip IDs of up to k vehicles, nearest first
+     */
+    public synchronized List<String> nearest(double x, double y, int k) {
+        List<String> found = new ArrayList<>();
+        if (k <= 0 || slots.isEmpty()) return found;
+        // can't find more than there are, and k sizes nothing up front
+        k = Math.min(k, slots.size());
+        // furthest of the best k at the head
+        PriorityQueue<double[]> best = new PriorityQueue<>((a, b) -> Double.compare(b[0], a[0]));
+        int centreX = cellOf(x);
+        int centreY = cellOf(y);
+        int maxRing = Math.max(Math.max(centreX - minCellX, maxCellX - centreX),
+            Math.max(centreY - minCellY, maxCellY - centreY));
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int cellY = centreY - ring; cellY <= centreY + ring; cellY++) {
+                boolean edgeRow = cellY == centreY - ring || cellY == centreY + ring;
+                // only the border of the ring, the inside was searched already
+                int step = edgeRow ? 1 : Math.max(2 * ring, 1);
+                for (int cellX = centreX - ring; cellX <= centreX + ring; cellX += step) {
+                    Cell cell = cells.get(key(cellX, cellY));
+                    if (cell == null) continue;
+                    for (int i = 0; i < cell.size; i++) {
+                        int slot = cell.slots[i];
+                        double distSq = distSq(slot, x, y);
+                        if (best.size() < k) {
+                            best.add(new double[]{distSq, slot});
+                        } else if (distSq < best.peek()[0]) {
+                            best.poll();
+                            best.add(new double[]{distSq, slot});
+                        }
+                    }
+                }
+            }
+            // anything outside this ring is at least ring cells away
+            double searched = ring * CELL_SIZE;
+            if (best.size() == k && best.peek()[0] <= searched * searched) break;
+        }
+
+        String[] ordered = new String[best.size()];
+        for (int i = ordered.length - 1; i >= 0; i--) {
+            ordered[i] = tripIDs[(int) best.poll()[1]];
+        }
+        found.addAll(Arrays.asList(ordered));
+        return found;
+    }
+
+    /** @return Atlas x of a vehicle, NaN if it isn't in the index */
+    public synchronized double x(String tripID) {
+        Integer slot = slots.get(tripID);
+        return slot == null ? Double.NaN : xs[slot];
+    }
+
+    /** @return Atlas y of a vehicle, NaN if it isn't in the index */
+    public synchronized double y(String tripID) {
+        Integer slot = slots.get(tripID);
+        return slot == null ? Double.NaN : ys[slot];
+    }
+
+    private int allocate(String tripID) {
+        int slot;
+        if (!freeSlots.isEmpty()) {
+            slot = freeSlots.poll();
+        } else {
+            slot = slotCount++;
+            if (slot == tripIDs.length) {
+                int capacity = slot * 2;
+                tripIDs = Arrays.copyOf(tripIDs, capacity);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+                cellXs = Arrays.copyOf(cellXs, capacity);
+                cellYs = Arrays.copyOf(cellYs, capacity);
+                cellIndex = Arrays.copyOf(cellIndex, capacity);
+            }
+        }
+        tripIDs[slot] = tripID;
+        slots.put(tripID, slot);
+        return slot;
+    }
+
+    private void insert(int slot, int cellX, int cellY) {
+        Cell cell = cells.computeIfAbsent(key(cellX, cellY), k -> new Cell());
+        if (cell.size == cell.slots.length) cell.slots = Arrays.copyOf(cell.slots, cell.size * 2);
+        cellIndex[slot] = cell.size;
+        cell.slots[cell.size++] = slot;
+        cellXs[slot] = cellX;
+        cellYs[slot] = cellY;
+        minCellX = Math.min(minCellX, cellX);
+        minCellY = Math.min(minCellY, cellY);
+        maxCellX = Math.max(maxCellX, cellX);
+        maxCellY = Math.max(maxCellY, cellY);
+    }
+
+    /** Takes a slot out of its cell, moving the cell's last slot into its place */
+    private void detach(int slot) {
+        long key = key(cellXs[slot], cellYs[slot]);
+        Cell cell = cells.get(key);
+        int index = cellIndex[slot];
+        int last = cell.slots[--cell.size];
+        cell.slots[index] = last;
+        cellIndex[last] = index;
+        if (cell.size == 0) cells.remove(key);
+    }
+
+    private double distSq(int slot, double x, double y) {
+        double dx = xs[slot] - x;
+        double dy = ys[slot] - y;
+        return dx * dx + dy * dy;
+    }
+
+    private static int cellOf(double coord) {
+        return (int) Math.floor(coord / CELL_SIZE);
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+}
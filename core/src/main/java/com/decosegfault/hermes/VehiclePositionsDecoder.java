@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes;
+
+import com.google.protobuf.CodedInputStream;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streams a GTFS-RT VehiclePositions FeedMessage straight out of its wire format, without building the
+ * protobuf object graph.
+ * <p>
+ * Only the header timestamp and each vehicle's trip ID, route ID, lat/lon, bearing and timestamp are
+ * read, into primitive buffers that are reused across feeds. Everything else is skipped. Trip and route
+ * IDs are looked up in a pool keyed on their raw bytes, so an ID that was in the previous feed costs no
+ * allocation. Not thread safe, each feed has its own decoder.
+ *
+ * @author Cathy Nguyen
+ */
+public class VehiclePositionsDecoder {
+    // tags are (field number << 3) | wire type, see gtfs-realtime.proto
+    private static final int FEED_HEADER = 10;
+    private static final int FEED_ENTITY = 18;
+    private static final int HEADER_TIMESTAMP = 24;
+    private static final int ENTITY_VEHICLE = 34;
+    private static final int VEHICLE_TRIP = 10;
+    private static final int VEHICLE_POSITION = 18;
+    private static final int VEHICLE_TIMESTAMP = 40;
+    private static final int TRIP_TRIP_ID = 10;
+    private static final int TRIP_ROUTE_ID = 42;
+    private static final int POSITION_LATITUDE = 13;
+    private static final int POSITION_LONGITUDE = 21;
+    private static final int POSITION_BEARING = 29;
+
+    private final StringPool pool;
+
+    private long headerTimestamp = -1;
+    private int size = 0;
+    private String[] tripIDs = new String[1024];
+    private String[] routeIDs = new String[1024];
+    private double[] latitudes = new double[1024];
+    private double[] longitudes = new double[1024];
+    private float[] bearings = new float[1024];
+    private long[] timestamps = new long[1024];
+
+    /** the message being decoded, kept so IDs can be read from it in place */
+    private byte[] data;
+
+    /**
+     * @param prefix prepended to every trip and route ID, see {@link FeedSource#qualify(String)}
+     */
+    public VehiclePositionsDecoder(String prefix) {
+        pool = new StringPool(prefix);
+    }
+
+    /**
+     * Decodes a whole VehiclePositions message, replacing the previous contents of the buffers.
+     * Vehicles without a trip ID or position are dropped.
+     */
+    public void decode(byte[] message) throws IOException {
+        data = message;
+        size = 0;
+        headerTimestamp = -1;
+        CodedInputStream in = CodedInputStream.newInstance(message);
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == FEED_HEADER) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                headerTimestamp = readHeader(in);
+                in.popLimit(limit);
+            } else if (tag == FEED_ENTITY) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readEntity(in);
+                in.popLimit(limit);
+            } else {
+                in.skipField(tag);
+            }
+        }
+        data = null;
+    }
+
+    /**
+     * Reads only the header timestamp of a FeedMessage, so an unchanged feed can be dropped without
+     * decoding it.
+     *
+     * @return the header timestamp, or -1 if the message has none
+     */
+    public static long headerTimestamp(byte[] message) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(message);
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == FEED_HEADER) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                long timestamp = readHeader(in);
+                in.popLimit(limit);
+                return timestamp;
+            }
+            in.skipField(tag);
+        }
+        return -1;
+    }
+
+    /** @return header timestamp of the last message decoded, -1 if it had none */
+    public long headerTimestamp() {
+        return headerTimestamp;
+    }
+
+    /** @return number of vehicles in the last message decoded */
+    public int size() {
+        return size;
+    }
+
+    /** @return trip ID of vehicle i, with the prefix */
+    public String tripID(int i) {
+        return tripIDs[i];
+    }
+
+    /** @return route ID of vehicle i, with the prefix, or the bare prefix if the feed didn't give one */
+    public String routeID(int i) {
+        return routeIDs[i];
+    }
+
+    public double latitude(int i) {
+        return latitudes[i];
+    }
+
+    public double longitude(int i) {
+        return longitudes[i];
+    }
+
+    /** @return bearing of vehicle i in degrees clockwise from north, NaN if the feed didn't give one */
+    public float bearing(int i) {
+        return bearings[i];
+    }
+
+    /** @return timestamp of vehicle i in seconds, 0 if the feed didn't give one */
+    public long timestamp(int i) {
+        return timestamps[i];
+    }
+
+    private static long readHeader(CodedInputStream in) throws IOException {
+        long timestamp = -1;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == HEADER_TIMESTAMP) {
+                timestamp = in.readUInt64();
+            } else {
+                in.skipField(tag);
+            }
+        }
+        return timestamp;
+    }
+
+    private void readEntity(CodedInputStream in) throws IOException {
+        ensureCapacity();
+        tripIDs[size] = null;
+        routeIDs[size] = pool.prefix;
+        bearings[size] = Float.NaN;
+        timestamps[size] = 0;
+        // an entity that stops short of giving either coordinate mustn't inherit the last one's
+        latitudes[size] = Double.NaN;
+        longitudes[size] = Double.NaN;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == ENTITY_VEHICLE) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readVehicle(in);
+                in.popLimit(limit);
+            } else {
+                in.skipField(tag);
+            }
+        }
+        if (tripIDs[size] != null && !Double.isNaN(latitudes[size]) && !Double.isNaN(longitudes[size])) size++;
+    }
+
+    private void readVehicle(CodedInputStream in) throws IOException {
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (tag) {
+                case VEHICLE_TRIP: {
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    readTrip(in);
+                    in.popLimit(limit);
+                    break;
+                }
+                case VEHICLE_POSITION: {
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    readPosition(in);
+                    in.popLimit(limit);
+                    break;
+                }
+                case VEHICLE_TIMESTAMP:
+                    timestamps[size] = in.readUInt64();
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+    }
+
+    private void readTrip(CodedInputStream in) throws IOException {
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == TRIP_TRIP_ID) {
+                tripIDs[size] = readPooledString(in);
+            } else if (tag == TRIP_ROUTE_ID) {
+                routeIDs[size] = readPooledString(in);
+            } else {
+                in.skipField(tag);
+            }
+        }
+    }
+
+    private void readPosition(CodedInputStream in) throws IOException {
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (tag) {
+                case POSITION_LATITUDE:
+                    latitudes[size] = in.readFloat();
+                    break;
+                case POSITION_LONGITUDE:
+                    longitudes[size] = in.readFloat();
+                    break;
+                case POSITION_BEARING:
+                    bearings[size] = in.readFloat();
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+    }
+
+    /** Reads a length delimited string through the pool, straight from the message bytes */
+    private String readPooledString(CodedInputStream in) throws IOException {
+        int length = in.readRawVarint32();
+        int offset = in.getTotalBytesRead();
+        String value = pool.get(data, offset, length);
+        in.skipRawBytes(length);
+        return value;
+    }
+
+    private void ensureCapacity() {
+        if (size < tripIDs.length) return;
+        int capacity = tripIDs.length * 2;
+        tripIDs = Arrays.copyOf(tripIDs, capacity);
+        routeIDs = Arrays.copyOf(routeIDs, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        bearings = Arrays.copyOf(bearings, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+    }
+
+    /**
+     * Open addressing map from raw UTF-8 bytes to prefixed strings. Cleared once it gets too big, since
+     * trip IDs churn over the day.
+     */
+    private static final class StringPool {
+        private static final int MAX_SIZE = 1 << 16;
+
+        final String prefix;
+        private byte[][] keys = new byte[4096][];
+        private String[] values = new String[4096];
+        private int[] hashes = new int[4096];
+        private int size = 0;
+
+        StringPool(String prefix) {
+            this.prefix = prefix;
+        }
+
+        String get(byte[] data, int offset, int length) {
+            int hash = hash(data, offset, length);
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (keys[slot] != null) {
+                if (hashes[slot] == hash
+                    && Arrays.equals(keys[slot], 0, keys[slot].length, data, offset, offset + length)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (size >= MAX_SIZE) {
+                clear();
+            } else if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            String value = prefix + new String(data, offset, length, StandardCharsets.UTF_8);
+            insert(hash, Arrays.copyOfRange(data, offset, offset + length), value);
+            return value;
+        }
+
+        private void insert(int hash, byte[] key, String value) {
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            hashes[slot] = hash;
+            size++;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            int[] oldHashes = hashes;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            hashes = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) insert(oldHashes[i], oldKeys[i], oldValues[i]);
+            }
+        }
+
+        private void clear() {
+            Arrays.fill(keys, null);
+            Arrays.fill(values, null);
+            size = 0;
+        }
+
+        private static int hash(byte[] data, int offset, int length) {
+            int hash = 1;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + data[i];
+            }
+            // spread the high bits, the table is indexed by the low ones
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
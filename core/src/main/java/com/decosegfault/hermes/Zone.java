@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes;
+
+import com.badlogic.gdx.math.Vector3;
+import com.decosegfault.atlas.util.AtlasUtils;
+import com.decosegfault.atlas.util.HPVector3;
+import com.decosegfault.hermes.data.ShapeData;
+
+/**
+ * A named circle or polygon on the map, given in lat/long and kept in Atlas coords for testing vehicles
+ * and shapes against. Immutable, moving a zone makes a new one.
+ * <p>
+ * Zones come from clients, so they are kept to {@link #MAX_RADIUS} metres from their centre, set with
+ * -Dhermes.maxZoneRadius, and polygons to {@link #MAX_POINTS} corners.
+ *
+ * @author Cathy Nguyen
+ */
+public class Zone {
+    /** furthest any part of a zone can be from its centre, in metres */
+    public static final double MAX_RADIUS = Double.parseDouble(System.getProperty("hermes.maxZoneRadius", "20000"));
+    public static final int MAX_POINTS = 256;
+
+    public final String name;
+
+    // as given, circle if polyLats is null
+    private final double lat;
+    private final double lon;
+    private final double radiusMetres;
+    private final double[] polyLats;
+    private final double[] polyLongs;
+
+    // Atlas coords
+    private final double centreX;
+    private final double centreY;
+    private final double radius;
+    private final double[] xs;
+    private final double[] ys;
+    final double minX;
+    final double minY;
+    final double maxX;
+    final double maxY;
+
+    private Zone(String name, double lat, double lon, double radiusMetres, double[] polyLats, double[] polyLongs) {
+        this.name = name;
+        this.lat = lat;
+        this.lon = lon;
+        this.radiusMetres = radiusMetres;
+        this.polyLats = polyLats;
+        this.polyLongs = polyLongs;
+
+        Vector3 centre = AtlasUtils.INSTANCE.latLongToAtlas(lat, lon, 0.0);
+        centreX = centre.x;
+        centreY = centre.y;
+        if (polyLats == null) {
+            radius = CoverageIndex.metresToAtlas(lat, lon, radiusMetres);
+            xs = null;
+            ys = null;
+            minX = centreX - radius;
+            minY = centreY - radius;
+            maxX = centreX + radius;
+            maxY = centreY + radius;
+        } else {
+            xs = new double[polyLats.length];
+            ys = new double[polyLats.length];
+            double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE, x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+            for (int i = 0; i < xs.length; i++) {
+                Vector3 point = AtlasUtils.INSTANCE.latLongToAtlas(polyLats[i], polyLongs[i], 0.0);
+                xs[i] = point.x;
+                ys[i] = point.y;
+                x0 = Math.min(x0, xs[i]);
+                y0 = Math.min(y0, ys[i]);
+                x1 = Math.max(x1, xs[i]);
+                y1 = Math.max(y1, ys[i]);
+            }
+            minX = x0;
+            minY = y0;
+            maxX = x1;
+            maxY = y1;
+            radius = Math.hypot(Math.max(centreX - minX, maxX - centreX), Math.max(centreY - minY, maxY - centreY));
+        }
+        // also catches NaN coords
+        if (!(radius <= CoverageIndex.metresToAtlas(lat, lon, MAX_RADIUS))) {
+            throw new IllegalArgumentException("Zone must be within " + MAX_RADIUS + " m of its centre");
+        }
+    }
+
+    /**
+     * @param radius in metres
+     */
+    public static Zone circle(String name, double lat, double lon, double radius) {
+        if (radius <= 0) throw new IllegalArgumentException("Zone radius must be positive");
+        return new Zone(name, lat, lon, radius, null, null);
+    }
+
+    /**
+     * @param latLongs [lat, long] of each corner, in order
+     */
+    public static Zone polygon(String name, double[][] latLongs) {
+        if (latLongs.length < 3) throw new IllegalArgumentException("Zone polygon needs at least 3 points");
+        if (latLongs.length > MAX_POINTS) {
+            throw new IllegalArgumentException("Zone polygon can have at most " + MAX_POINTS + " points");
+        }
+        double[] lats = new double[latLongs.length];
+        double[] longs = new double[latLongs.length];
+        double latSum = 0;
+        double longSum = 0;
+        for (int i = 0; i < latLongs.length; i++) {
+            if (latLongs[i].length != 2) throw new IllegalArgumentException("Zone polygon points must be [lat, long]");
+            lats[i] = latLongs[i][0];
+            longs[i] = latLongs[i][1];
+            latSum += lats[i];
+            longSum += longs[i];
+        }
+        return new Zone(name, latSum / lats.length, longSum / longs.length, 0, lats, longs);
+    }
+
+    /** @return the same zone with its centre moved to lat/long */
+    public Zone movedTo(double newLat, double newLong) {
+        if (polyLats == null) return circle(name, newLat, newLong, radiusMetres);
+        double[][] moved = new double[polyLats.length][];
+        for (int i = 0; i < polyLats.length; i++) {
+            moved[i] = new double[]{polyLats[i] - lat + newLat, polyLongs[i] - lon + newLong};
+        }
+        return polygon(name, moved);
+    }
+
+    public boolean isCircle() {
+        return polyLats == null;
+    }
+
+    /** @return true if Atlas coords x, y are inside the zone */
+    public boolean contains(double x, double y) {
+        if (x < minX || x > maxX || y < minY || y > maxY) return false;
+        if (xs == null) {
+            double dx = x - centreX;
+            double dy = y - centreY;
+            return dx * dx + dy * dy <= radius * radius;
+        }
+        // even-odd ray cast
+        boolean inside = false;
+        for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+            if ((ys[i] > y) != (ys[j] > y) && x < (xs[j] - xs[i]) * (y - ys[i]) / (ys[j] - ys[i]) + xs[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /** @return true if any part of the shape is inside the zone */
+    public boolean crosses(ShapeData shape) {
+        if (xs == null) return shape.nearestSegment(centreX, centreY, radius) >= 0;
+        for (int i = 0; i < shape.size(); i++) {
+            if (contains(shape.xs[i], shape.ys[i])) return true;
+        }
+        // a segment can cut a corner without either end being inside
+        for (int s = 0; s < shape.segmentCount(); s++) {
+            for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+                if (segmentsCross(shape.xs[s], shape.ys[s], shape.xs[s + 1], shape.ys[s + 1], xs[j], ys[j], xs[i], ys[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Atlas coords of the centre, the polygon's mean point for a polygon */
+    double centreX() {
+        return centreX;
+    }
+
+    double centreY() {
+        return centreY;
+    }
+
+    /** @return radius in Atlas units, the radius of a circle around a polygon */
+    double radius() {
+        return radius;
+    }
+
+    /** @return lat, long and radius in metres like HermesSim.brisbaneOlympics, only for circles */
+    public HPVector3 interestPoint() {
+        return new HPVector3(lat, lon, radiusMetres);
+    }
+
+    private static boolean segmentsCross(double ax, double ay, double bx, double by,
+                                         double cx, double cy, double dx, double dy) {
+        double d1 = cross(cx, cy, dx, dy, ax, ay);
+        double d2 = cross(cx, cy, dx, dy, bx, by);
+        double d3 = cross(ax, ay, bx, by, cx, cy);
+        double d4 = cross(ax, ay, bx, by, dx, dy);
+        return ((d1 > 0) != (d2 > 0)) && ((d3 > 0) != (d4 > 0));
+    }
+
+    private static double cross(double ax, double ay, double bx, double by, double px, double py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+}
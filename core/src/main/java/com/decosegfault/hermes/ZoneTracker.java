@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes;
+
+import com.decosegfault.atlas.util.HPVector3;
+import org.tinylog.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Tracks which vehicles are inside each {@link Zone}, and the enter and exit events as they move.
+ * <p>
+ * Zones can be added, moved and removed from any thread; the changes are queued and applied at the start of
+ * the next tick. Each tick, every zone only looks at the vehicles inside its bounding box through the
+ * {@link VehicleIndex}, and compares them with the vehicles that were inside last tick. Events pile up until
+ * they are taken with {@link #takeUpdate()}.
+ * <p>
+ * There can be at most {@link #MAX_ZONES} zones, set with -Dhermes.maxZones, since every zone is searched
+ * every tick.
+ *
+ * @author Cathy Nguyen
+ */
+public class ZoneTracker {
+    public static final int MAX_ZONES = Integer.getInteger("hermes.maxZones", 64);
+    /** most events a merged update holds before the oldest are dropped */
+    public static final int MAX_MERGED_EVENTS = 1024;
+    public static final String ENTER = "enter";
+    public static final String EXIT = "exit";
+
+    private final Queue<Consumer<Map<String, Zone>>> pending = new ConcurrentLinkedQueue<>();
+    /** the zones as they will be once the queued changes are applied, guarded by this */
+    private final Map<String, Zone> latest = new HashMap<>();
+
+    // only touched on the Hermes thread
+    private final Map<String, Zone> zones = new LinkedHashMap<>();
+    private final Map<String, Set<String>> inside = new HashMap<>();
+    private final List<ZoneEvent> events = new ArrayList<>();
+    private final Map<String, Integer> occupancy = new LinkedHashMap<>();
+    private boolean zonesChanged = false;
+    private boolean occupancyChanged = false;
+
+    /** a vehicle entering or leaving a zone */
+    public static class ZoneEvent {
+        final String zone;
+        final String tripID;
+        final String event;
+
+        ZoneEvent(String zone, String tripID, String event) {
+            this.zone = zone;
+            this.tripID = tripID;
+            this.event = event;
+        }
+
+        public String getZone() {
+            return zone;
+        }
+
+        public String getTripID() {
+            return tripID;
+        }
+
+        public String getEvent() {
+            return event;
+        }
+    }
+
+    /** what changed since the last update was taken, sent to the frontend as is */
+    public static class ZoneUpdate {
+        final String type = "zones";
+        List<ZoneEvent> events;
+        Map<String, Integer> occupancy;
+        /** events left out because too many piled up before they could be sent */
+        int missedEvents;
+
+        /**
+         * @return a new update with this update's events followed by a later one's, keeping only the last
+         * {@link #MAX_MERGED_EVENTS}, and the later occupancy
+         */
+        public ZoneUpdate merge(ZoneUpdate later) {
+            ZoneUpdate merged = new ZoneUpdate();
+            merged.events = new ArrayList<>(events.size() + later.events.size());
+            merged.events.addAll(events);
+            merged.events.addAll(later.events);
+            merged.occupancy = later.occupancy;
+            merged.missedEvents = missedEvents + later.missedEvents;
+            int excess = merged.events.size() - MAX_MERGED_EVENTS;
+            if (excess > 0) {
+                merged.events.subList(0, excess).clear();
+                merged.missedEvents += excess;
+            }
+            return merged;
+        }
+
+        public List<ZoneEvent> getEvents() {
+            return events;
+        }
+
+        public Map<String, Integer> getOccupancy() {
+            return occupancy;
+        }
+    }
+
+    /**
+     * Adds a zone, replacing any zone with the same name
+     *
+     * @throws IllegalArgumentException if there are already {@link #MAX_ZONES} zones
+     */
+    public synchronized void add(Zone zone) {
+        if (!latest.containsKey(zone.name) && latest.size() >= MAX_ZONES) {
+            throw new IllegalArgumentException("There can be at most " + MAX_ZONES + " zones");
+        }
+        latest.put(zone.name, zone);
+        pending.add(map -> map.put(zone.name, zone));
+    }
+
+    /**
+     * Moves a zone's centre to lat/long, keeping its shape. The moved zone is built here, so a bad move
+     * throws to the caller rather than on the Hermes thread.
+     *
+     * @throws IllegalArgumentException if there is no such zone or the moved zone isn't valid
+     */
+    public synchronized void move(String name, double lat, double lon) {
+        Zone zone = latest.get(name);
+        if (zone == null) throw new IllegalArgumentException("No zone " + name);
+        Zone moved = zone.movedTo(lat, lon);
+        latest.put(name, moved);
+        pending.add(map -> map.put(name, moved));
+    }
+
+    public synchronized void remove(String name) {
+        latest.remove(name);
+        pending.add(map -> map.remove(name));
+    }
+
+    /**
+     * Applies queued zone changes, then updates who is in each zone from the vehicle index.
+     * Must be called from the Hermes thread.
+     */
+    public void tick(VehicleIndex vehicles) {
+        Consumer<Map<String, Zone>> change;
+        while ((change = pending.poll()) != null) {
+            try {
+                change.accept(zones);
+            } catch (RuntimeException e) {
+                // changes are checked as they are queued, so this is a bug, but it mustn't stop the sim
+                Logger.warn("Failed to apply zone change");
+                Logger.warn(e);
+            }
+            zonesChanged = true;
+        }
+        if (zonesChanged) {
+            // everything in a removed zone leaves it
+            for (Map.Entry<String, Set<String>> entry : inside.entrySet()) {
+                if (zones.containsKey(entry.getKey())) continue;
+                for (String tripID : entry.getValue()) events.add(new ZoneEvent(entry.getKey(), tripID, EXIT));
+            }
+            inside.keySet().retainAll(zones.keySet());
+            occupancy.keySet().retainAll(zones.keySet());
+            occupancyChanged = true;
+        }
+
+        for (Zone zone : zones.values()) {
+            Set<String> previous = inside.getOrDefault(zone.name, Set.of());
+            Set<String> current = new HashSet<>();
+            vehicles.forEachInBox(zone.minX, zone.minY, zone.maxX, zone.maxY, (tripID, x, y) -> {
+                if (zone.contains(x, y)) current.add(tripID);
+            });
+            for (String tripID : current) {
+                if (!previous.contains(tripID)) events.add(new ZoneEvent(zone.name, tripID, ENTER));
+            }
+            for (String tripID : previous) {
+                if (!current.contains(tripID)) events.add(new ZoneEvent(zone.name, tripID, EXIT));
+            }
+            inside.put(zone.name, current);
+            Integer count = occupancy.put(zone.name, current.size());
+            if (count == null || count != current.size()) occupancyChanged = true;
+        }
+    }
+
+    /**
+     * @return true the first time it is called after zones were added, moved or removed
+     */
+    public boolean takeZonesChanged() {
+        boolean changed = zonesChanged;
+        zonesChanged = false;
+        return changed;
+    }
+
+    /**
+     * @return the events since the last call and the current occupancy of every zone, or null if nothing
+     * changed since the last call
+     */
+    public ZoneUpdate takeUpdate() {
+        if (events.isEmpty() && !occupancyChanged) return null;
+        ZoneUpdate update = new ZoneUpdate();
+        update.events = new ArrayList<>(events);
+        update.occupancy = new LinkedHashMap<>(occupancy);
+        events.clear();
+        occupancyChanged = false;
+        return update;
+    }
+
+    /** @return every zone, only safe on the Hermes thread */
+    public Collection<Zone> zones() {
+        return zones.values();
+    }
+
+    /** @return the circular zones as lat, long and radius, like HermesSim.brisbaneOlympics */
+    public Map<String, HPVector3> interestPoints() {
+        Map<String, HPVector3> points = new LinkedHashMap<>();
+        for (Zone zone : zones.values()) {
+            if (zone.isCircle()) points.put(zone.name, zone.interestPoint());
+        }
+        return points;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.data;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector3;
+import com.decosegfault.atlas.util.AtlasUtils;
+
+import java.util.Arrays;
+
+/**
+ * A GTFS shape stored as flat primitive arrays, shared by every trip that uses it.
+ * Points are kept both as lat/long and as Atlas coords, along with the cumulative distance (in Atlas
+ * units) to each point so positions can be looked up by distance along the shape.
+ * <p>
+ * Nearest segment queries go through a uniform grid over the shape's bounding box, built the first time
+ * it is needed. Each cell lists the segments whose bounding box overlaps it, in flat arrays.
+ *
+ * @author Lachlan Ellis
+ */
+public class ShapeData {
+    public final String shapeID;
+    public final double[] lats;
+    public final double[] longs;
+    /** Atlas x coord of each point */
+    public final double[] xs;
+    /** Atlas y coord of each point */
+    public final double[] ys;
+    /** distance along the shape to each point, in Atlas units */
+    public final double[] cumDist;
+    public final double length;
+
+    /** smallest grid cell, in Atlas units */
+    private static final double MIN_CELL_SIZE = 64;
+    /** roughly how many grid cells to allow per segment, so long sparse shapes don't get huge grids */
+    private static final int CELLS_PER_SEGMENT = 4;
+
+    // segment grid, null until first used
+    private double gridMinX;
+    private double gridMinY;
+    private double cellSize;
+    private int gridCols;
+    private int gridRows;
+    /** segments in cell c are cellSegments[cellStart[c]] to cellSegments[cellStart[c + 1] - 1] */
+    private int[] cellStart;
+    private int[] cellSegments;
+
+    /**
+     * @param shapeID GTFS shape ID
+     * @param lats latitude of each point, in sequence order
+     * @param longs longitude of each point, in sequence order
+     */
+    public ShapeData(String shapeID, double[] lats, double[] longs) {
+        this.shapeID = shapeID;
+        this.lats = lats;
+        this.longs = longs;
+        int size = lats.length;
+        xs = new double[size];
+        ys = new double[size];
+        cumDist = new double[size];
+        for (int i = 0; i < size; i++) {
+            Vector3 atlas = AtlasUtils.INSTANCE.latLongToAtlas(lats[i], longs[i], 0.0);
+            xs[i] = atlas.x;
+            ys[i] = atlas.y;
+            if (i > 0) {
+                cumDist[i] = cumDist[i - 1] + Math.hypot(xs[i] - xs[i - 1], ys[i] - ys[i - 1]);
+            }
+        }
+        length = size > 0 ? cumDist[size - 1] : 0;
+    }
+
+    /** @return number of points in the shape */
+    public int size() {
+        return xs.length;
+    }
+
+    /** @return number of segments in the shape, segment i runs from point i to point i + 1 */
+    public int segmentCount() {
+        return Math.max(xs.length - 1, 0);
+    }
+
+    /**
+     * Finds the segment closest to the given Atlas coords.
+     *
+     * @return segment index, or -1 if the shape has no segments
+     */
+    public int nearestSegment(double x, double y) {
+        return nearestSegment(x, y, Double.MAX_VALUE);
+    }
+
+    /**
+     * Finds the segment closest to the given Atlas coords using the segment grid, searching rings of cells
+     * outwards until no unsearched cell could hold anything closer.
+     *
+     * @param maxDist segments further than this (Atlas units) are ignored
+     * @return segment index, or -1 if no segment is within maxDist
+     */
+    public int nearestSegment(double x, double y, double maxDist) {
+        if (segmentCount() == 0) return -1;
+        if (cellStart == null) buildGrid();
+        int cx = MathUtils.clamp((int) Math.floor((x - gridMinX) / cellSize), 0, gridCols - 1);
+        int cy = MathUtils.clamp((int) Math.floor((y - gridMinY) / cellSize), 0, gridRows - 1);
+        int maxRing = Math.max(Math.max(cx, gridCols - 1 - cx), Math.max(cy, gridRows - 1 - cy));
+
+        int best = -1;
+        double bestDistSq = maxDist == Double.MAX_VALUE ? Double.MAX_VALUE : maxDist * maxDist;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // anything in this ring or beyond is at least (ring - 1) cells away
+            double ringDist = Math.max(0, ring - 1) * cellSize;
+            if (ringDist * ringDist > bestDistSq) break;
+            for (int gy = cy - ring; gy <= cy + ring; gy++) {
+                if (gy < 0 || gy >= gridRows) continue;
+                boolean edgeRow = gy == cy - ring || gy == cy + ring;
+                // only the border of the ring, the inside was searched already
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int gx = cx - ring; gx <= cx + ring; gx += Math.max(step, 1)) {
+                    if (gx < 0 || gx >= gridCols) continue;
+                    int cell = gy * gridCols + gx;
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        int segment = cellSegments[i];
+                        double distSq = segmentDistSq(segment, x, y);
+                        if (distSq < bestDistSq || (distSq == bestDistSq && best >= 0 && segment < best)) {
+                            bestDistSq = distSq;
+                            best = segment;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the segment closest to the given Atlas coords among segments first to last (inclusive),
+     * by checking each one. Used for matching within a small window along the shape.
+     *
+     * @return segment index, or -1 if the range is empty
+     */
+    public int nearestSegment(double x, double y, int first, int last) {
+        first = Math.max(first, 0);
+        last = Math.min(last, segmentCount() - 1);
+        int best = -1;
+        double bestDist = Double.MAX_VALUE;
+        for (int i = first; i <= last; i++) {
+            double dist = segmentDistSq(i, x, y);
+            if (dist < bestDist) {
+                bestDist = dist;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return squared distance from the given Atlas coords to segment i
+     */
+    public double segmentDistSq(int segment, double x, double y) {
+        double t = segmentParam(segment, x, y);
+        double px = xs[segment] + (xs[segment + 1] - xs[segment]) * t;
+        double py = ys[segment] + (ys[segment + 1] - ys[segment]) * t;
+        return (x - px) * (x - px) + (y - py) * (y - py);
+    }
+
+    /**
+     * Projects the given Atlas coords onto a segment.
+     *
+     * @return distance along the whole shape of the projected point
+     */
+    public double project(int segment, double x, double y) {
+        double t = segmentParam(segment, x, y);
+        return cumDist[segment] + (cumDist[segment + 1] - cumDist[segment]) * t;
+    }
+
+    /**
+     * @return the segment containing the given distance along the shape
+     */
+    public int segmentAt(double dist) {
+        int low = 0;
+        int high = segmentCount() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (cumDist[mid] <= dist) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Looks up the point at a distance along the shape, without allocating.
+     *
+     * @param dist distance along the shape, clamped to the shape's length
+     * @param out set to the Atlas x, y and heading (degrees) at that point
+     */
+    public void pointAt(double dist, Vector3 out) {
+        if (segmentCount() == 0) {
+            out.set(xs.length > 0 ? (float) xs[0] : 0f, xs.length > 0 ? (float) ys[0] : 0f, 0f);
+            return;
+        }
+        dist = Math.max(0, Math.min(dist, length));
+        int segment = segmentAt(dist);
+        double segLength = cumDist[segment + 1] - cumDist[segment];
+        double t = segLength > 0 ? (dist - cumDist[segment]) / segLength : 0;
+        double dx = xs[segment + 1] - xs[segment];
+        double dy = ys[segment + 1] - ys[segment];
+        out.set((float) (xs[segment] + dx * t), (float) (ys[segment] + dy * t), (float) heading(dx, dy));
+    }
+
+    /**
+     * @return heading in degrees for a direction in Atlas coords, same convention as TripData
+     */
+    public static double heading(double dx, double dy) {
+        return (-1 * Math.atan2(dy, dx) * MathUtils.radiansToDegrees) % 360;
+    }
+
+    /**
+     * Builds the segment grid. Cells are square and sized so the grid has at most a few cells per segment.
+     */
+    private void buildGrid() {
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < xs.length; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        long maxCells = (long) CELLS_PER_SEGMENT * segmentCount() + 1;
+        cellSize = Math.max(MIN_CELL_SIZE, Math.sqrt((maxX - minX) * (maxY - minY) / maxCells));
+        // thin shapes have next to no area, so also cap the cell count directly
+        while ((long) ((maxX - minX) / cellSize + 1) * (long) ((maxY - minY) / cellSize + 1) > 2 * maxCells) {
+            cellSize *= 2;
+        }
+        gridMinX = minX;
+        gridMinY = minY;
+        gridCols = (int) ((maxX - minX) / cellSize) + 1;
+        gridRows = (int) ((maxY - minY) / cellSize) + 1;
+
+        // count, prefix sum, then fill
+        int[] start = new int[gridCols * gridRows + 1];
+        for (int segment = 0; segment < segmentCount(); segment++) {
+            forEachCell(segment, start, null);
+        }
+        for (int cell = 0, total = 0; cell < start.length; cell++) {
+            int count = start[cell];
+            start[cell] = total;
+            total += count;
+        }
+        int[] segments = new int[start[start.length - 1]];
+        int[] fill = Arrays.copyOf(start, start.length);
+        for (int segment = 0; segment < segmentCount(); segment++) {
+            forEachCell(segment, fill, segments);
+        }
+        cellSegments = segments;
+        cellStart = start;
+    }
+
+    /**
+     * Visits every grid cell overlapped by a segment's bounding box. Counts into cursor if segments is null,
+     * otherwise writes the segment at each cell's cursor and advances it.
+     */
+    private void forEachCell(int segment, int[] cursor, int[] segments) {
+        int x0 = (int) ((Math.min(xs[segment], xs[segment + 1]) - gridMinX) / cellSize);
+        int x1 = (int) ((Math.max(xs[segment], xs[segment + 1]) - gridMinX) / cellSize);
+        int y0 = (int) ((Math.min(ys[segment], ys[segment + 1]) - gridMinY) / cellSize);
+        int y1 = (int) ((Math.max(ys[segment], ys[segment + 1]) - gridMinY) / cellSize);
+        for (int gy = y0; gy <= y1; gy++) {
+            for (int gx = x0; gx <= x1; gx++) {
+                int cell = gy * gridCols + gx;
+                if (segments == null) {
+                    cursor[cell]++;
+                } else {
+                    segments[cursor[cell]++] = segment;
+                }
+            }
+        }
+    }
+
+    /** @return where the given coords fall along segment i, from 0 (start) to 1 (end) */
+    private double segmentParam(int segment, double x, double y) {
+        double dx = xs[segment + 1] - xs[segment];
+        double dy = ys[segment + 1] - ys[segment];
+        double lengthSq = dx * dx + dy * dy;
+        if (lengthSq == 0) return 0;
+        double t = ((x - xs[segment]) * dx + (y - ys[segment]) * dy) / lengthSq;
+        return Math.max(0, Math.min(1, t));
+    }
+}
@@ -37,6 +37,8 @@ public class TripData {
     public String routeName;
     public String routeVehicleName;
     public List<HPVector3> routeMap =  new ArrayList<>();
+    /** shared shape of this trip, null if the trip has no shape */
+    public ShapeData shape;
     public VehicleData vehicle;
 
     public double pathLength = 0;
@@ -44,6 +46,10 @@ public class TripData {
     public int startTime = 0;
     /** optional, only used in history mode */
     public int endTime = -1;
+    /** stop sequence of the stop at endTime */
+    public int lastStopSequence = -1;
+    /** index of this trip in RouteHandler.tripsByDenseID */
+    public int denseID = -1;
     //debug
     int tickCount = 0;
 
@@ -51,7 +57,10 @@ public class TripData {
     double previousDist;
     public double previousTime = 0;
 
-    String inBound;
+    /** GTFS direction_id, "0" or "1", null if the feed doesn't give one */
+    public String inBound;
+    /** distance along routeMap as of the last tick, out of pathLength */
+    public double traversedDist = 0;
 
     int actualEndTime;
 
@@ -96,20 +105,23 @@ public class TripData {
      *
      */
     public void tick() {
-        if (startTime <= HermesSim.time && endTime >= HermesSim.time) {
+        // with delays, the trip runs on its schedule shifted by its live delay
+        double time = HermesSim.time - HermesSim.tripDelay(this);
+        if (startTime <= time && endTime >= time) {
             vehicle.hidden = false;
             HPVector2 newPosition = new HPVector2(0, 0);
             int shapeIndex = 0;
             if (RouteHandler.simType != SimType.LIVE) {
                 double traversedDist;
                 if(RouteHandler.simType == SimType.SIMULATED) {
-                    traversedDist = previousDist + (HermesSim.time - previousTime) * RouteHandler.vehicleSpeed;
+                    traversedDist = previousDist + (time - previousTime) * RouteHandler.vehicleSpeed;
                     previousDist = traversedDist;
-                    previousTime = HermesSim.time;
+                    previousTime = time;
                 } else {
-                    double traversedPercent = (HermesSim.time - startTime) /  (endTime - startTime);
+                    double traversedPercent = (time - startTime) /  (endTime - startTime);
                     traversedDist = traversedPercent * pathLength;
                 }
+                this.traversedDist = traversedDist;
 
                 double recordedDist = 0;
                 if (routeMap.size() > 1) {
@@ -133,7 +145,7 @@ public class TripData {
             }
             if(shapeIndex == 0) {
                 vehicle.hidden = true;
-                if (HermesSim.time >= startTime && !didRouteEnd) {
+                if (time >= startTime && !didRouteEnd) {
                     actualEndTime = (int) HermesSim.time;
                     didRouteEnd = true;
                 }
@@ -149,11 +161,12 @@ public class TripData {
         } else {
             vehicle.position.set(-27.499593094511493, 153.01620933407332, 0);
             vehicle.hidden = true;
-            if (HermesSim.time >= startTime && !didRouteEnd) {
+            if (time >= startTime && !didRouteEnd) {
                 actualEndTime = (int) HermesSim.time;
 
                 RouteExpectedReal expectedReal = new RouteExpectedReal();
                 expectedReal.setRouteName(this.routeName);
+                expectedReal.setRoute(this.routeVehicleName);
                 expectedReal.setActualTime(this.actualEndTime);
                 expectedReal.setExpectedTime(this.endTime);
                 HermesSim.expectedReals.add(expectedReal);
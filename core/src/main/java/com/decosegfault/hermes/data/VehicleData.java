@@ -21,6 +21,10 @@ public class VehicleData {
     public HPVector3 position = new HPVector3(0, 0, 0); //describes the 2d position and the orientation
     public HPVector3 oldPosition = new HPVector3(0, 0, 0);
     public boolean hidden = false;
+    /** recent positions, only used for live vehicles */
+    public VehicleTrajectory trajectory;
+    /** seconds behind schedule (negative if early), only set in adherence mode, NaN if unknown */
+    public double scheduleDeviation = Double.NaN;
 
     /**
      * @param type
@@ -36,4 +40,16 @@ public class VehicleData {
         oldPosition = position;
         position = newPosition;
     }
+
+    /**
+     * Moves this vehicle in place, keeping the previous position in oldPosition.
+     *
+     * @return true if the position changed, false if the vehicle is still in the same spot
+     */
+    public boolean moveTo(double x, double y, double z) {
+        if (position.getX() == x && position.getY() == y && position.getZ() == z) return false;
+        oldPosition.set(position.getX(), position.getY(), position.getZ());
+        position.set(x, y, z);
+        return true;
+    }
 }
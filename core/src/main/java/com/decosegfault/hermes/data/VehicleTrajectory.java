@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.data;
+
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * Small ring buffer of recent timestamped positions for a live vehicle, in Atlas coords.
+ * Heading and speed are derived from the buffer whenever a sample is pushed, and between feed updates
+ * the vehicle is dead reckoned along its trip's shape (or in a straight line if it has none).
+ * Nothing here allocates after construction, so it is safe to call every tick.
+ * <p>
+ * Each sample is map matched onto the shape. Once a vehicle has a match, the next one is first searched
+ * for in a window just behind to well ahead of it, as far as the vehicle could have travelled since, so
+ * matching stays cheap and can't jump to the other leg of a looping shape. The shape's segment grid is
+ * only searched if there is no previous match or nothing in the window is close enough.
+ *
+ * @author Lachlan Ellis
+ */
+public class VehicleTrajectory {
+    /** number of samples kept per vehicle */
+    public static final int CAPACITY = 8;
+    /** never dead reckon further than this many seconds past the last sample */
+    public static final double MAX_EXTRAPOLATION = 30.0;
+    /** samples further than this from the shape (Atlas units) don't count as being on it */
+    public static final double MAX_MATCH_DIST = 200.0;
+    /** fastest any vehicle is assumed to go when sizing the search window, in Atlas units per second */
+    public static final double MAX_SPEED = 200.0;
+
+    private final double[] xs = new double[CAPACITY];
+    private final double[] ys = new double[CAPACITY];
+    private final double[] times = new double[CAPACITY];
+    /** index of the most recent sample */
+    private int head = -1;
+    private int count = 0;
+
+    /** heading in degrees, same convention as TripData */
+    private double heading = 0;
+    /** direction of travel in radians, atan2 of the last movement */
+    private double direction = 0;
+    /** speed in Atlas units per second */
+    private double speed = 0;
+
+    /** the trip's shape, null if the trip has no known shape */
+    public final ShapeData shape;
+    /** true if the latest sample was close enough to the shape to travel along it */
+    public boolean onShape = false;
+    /** distance along the shape of the latest sample */
+    public double shapeDist = 0;
+    /** shape segment of the latest sample */
+    public int shapeSegment = 0;
+
+    /**
+     * @param shape the shape of the vehicle's trip, or null if unknown
+     */
+    public VehicleTrajectory(ShapeData shape) {
+        this.shape = shape;
+    }
+
+    /**
+     * Records a new position and updates heading, speed and shape position.
+     *
+     * @param x Atlas x coord
+     * @param y Atlas y coord
+     * @param time sample time in seconds
+     * @return false if the sample was ignored because it isn't newer than the latest one
+     */
+    public boolean push(double x, double y, double time) {
+        if (count > 0 && time <= times[head]) return false;
+        double dt = count > 0 ? time - times[head] : 0;
+        head = (head + 1) % CAPACITY;
+        xs[head] = x;
+        ys[head] = y;
+        times[head] = time;
+        if (count < CAPACITY) count++;
+
+        updateMotion();
+        if (shape != null && shape.segmentCount() > 0) {
+            matchShape(x, y, dt);
+        }
+        return true;
+    }
+
+    /** @return number of samples currently in the buffer */
+    public int size() {
+        return count;
+    }
+
+    /** @return heading in degrees, same convention as TripData */
+    public double heading() {
+        return heading;
+    }
+
+    /** @return speed in Atlas units per second */
+    public double speed() {
+        return speed;
+    }
+
+    /** @return distance left to the end of the shape in Atlas units, NaN if the vehicle isn't on its shape */
+    public double distanceRemaining() {
+        return onShape ? shape.length - shapeDist : Double.NaN;
+    }
+
+    /** @return time of the latest sample in seconds */
+    public double latestTime() {
+        return count > 0 ? times[head] : 0;
+    }
+
+    /**
+     * Dead reckons the vehicle's position at the given time, without allocating.
+     *
+     * @param now current time in seconds, same time base as the samples
+     * @param out set to the Atlas x, y and heading (degrees)
+     */
+    public void extrapolate(double now, Vector3 out) {
+        if (count == 0) {
+            out.set(0f, 0f, 0f);
+            return;
+        }
+        double dt = Math.max(0, Math.min(now - times[head], MAX_EXTRAPOLATION));
+        if (onShape) {
+            shape.pointAt(shapeDist + speed * dt, out);
+        } else {
+            double dist = speed * dt;
+            out.set((float) (xs[head] + Math.cos(direction) * dist), (float) (ys[head] + Math.sin(direction) * dist),
+                (float) heading);
+        }
+    }
+
+    /** Derives heading and speed from the samples in the buffer */
+    private void updateMotion() {
+        if (count < 2) return;
+        double travelled = 0;
+        boolean foundHeading = false;
+        int index = head;
+        for (int i = 1; i < count; i++) {
+            int previous = (index - 1 + CAPACITY) % CAPACITY;
+            double dx = xs[index] - xs[previous];
+            double dy = ys[index] - ys[previous];
+            // heading comes from the most recent sample pair where the vehicle actually moved
+            if (!foundHeading && (dx != 0 || dy != 0)) {
+                direction = Math.atan2(dy, dx);
+                heading = ShapeData.heading(dx, dy);
+                foundHeading = true;
+            }
+            travelled += Math.hypot(dx, dy);
+            index = previous;
+        }
+        double elapsed = times[head] - times[index];
+        speed = elapsed > 0 ? travelled / elapsed : 0;
+    }
+
+    /**
+     * Projects the latest sample onto the shape, within the search window if there was a previous match.
+     *
+     * @param dt seconds since the previous sample, 0 if this is the first
+     */
+    private void matchShape(double x, double y, double dt) {
+        double maxDistSq = MAX_MATCH_DIST * MAX_MATCH_DIST;
+        int segment = -1;
+        if (onShape) {
+            int first = shape.segmentAt(shapeDist - MAX_MATCH_DIST);
+            int last = shape.segmentAt(shapeDist + MAX_SPEED * dt + MAX_MATCH_DIST);
+            segment = shape.nearestSegment(x, y, first, last);
+            if (segment >= 0 && shape.segmentDistSq(segment, x, y) > maxDistSq) segment = -1;
+        }
+        if (segment < 0) {
+            segment = shape.nearestSegment(x, y, MAX_MATCH_DIST);
+        }
+        onShape = segment >= 0;
+        if (onShape) {
+            shapeSegment = segment;
+            shapeDist = shape.project(segment, x, y);
+        }
+    }
+}
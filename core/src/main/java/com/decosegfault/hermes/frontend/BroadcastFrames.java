@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.google.gson.Gson;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The payloads of one broadcast, each encoded at most once however many clients want it.
+ * There are three payloads (full FrontendData, keyframe and delta), each in JSON or binary. A variant is
+ * only encoded the first time a client asks for it, so nothing is encoded that no one receives.
+ * Only used from the Hermes thread.
+ *
+ * @author Cathy Nguyen
+ */
+class BroadcastFrames {
+    static final int FULL = 0;
+    static final int KEYFRAME = 1;
+    static final int DELTA = 2;
+
+    private static final Gson gson = new Gson();
+
+    private final Object[] payloads = new Object[3];
+    private final String[] texts = new String[3];
+    private final ByteBuffer[] binaries = new ByteBuffer[3];
+
+    BroadcastFrames(FrontendData full, FrontendMessage keyframe, FrontendMessage delta) {
+        payloads[FULL] = full;
+        payloads[KEYFRAME] = keyframe;
+        payloads[DELTA] = delta;
+    }
+
+    /** @return true if there is a payload of the given kind this broadcast */
+    boolean has(int kind) {
+        return payloads[kind] != null;
+    }
+
+    /** @return the payload as JSON, encoded on first use */
+    String text(int kind) {
+        if (texts[kind] == null) {
+            texts[kind] = gson.toJson(payloads[kind]);
+        }
+        return texts[kind];
+    }
+
+    /**
+     * @return the payload as a binary message, encoded on first use. Each caller gets its own view of the
+     * shared bytes, since sending moves the buffer's position.
+     */
+    ByteBuffer binary(int kind) {
+        if (binaries[kind] == null) {
+            Object payload = payloads[kind];
+            byte[] bytes = payload instanceof FrontendMessage
+                ? FrontendBinaryEncoder.encode((FrontendMessage) payload)
+                : FrontendBinaryEncoder.encode((FrontendData) payload);
+            binaries[kind] = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+        return binaries[kind].duplicate();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+/**
+ * A vehicle running much closer behind the vehicle in front than is usual for its route and direction.
+ *
+ * @author Cathy Nguyen
+ */
+public class BunchingAlert {
+    String route;
+    String direction;
+    String tripID;
+    /** trip of the vehicle in front */
+    String leaderTripID;
+    /** seconds behind the vehicle in front at the last timing point */
+    double headway;
+    /** mean headway of the route and direction at the time */
+    double meanHeadway;
+
+    public BunchingAlert(String route, String direction, String tripID, String leaderTripID, double headway,
+                         double meanHeadway) {
+        this.route = route;
+        this.direction = direction;
+        this.tripID = tripID;
+        this.leaderTripID = leaderTripID;
+        this.headway = headway;
+        this.meanHeadway = meanHeadway;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public String getDirection() {
+        return direction;
+    }
+
+    public String getTripID() {
+        return tripID;
+    }
+
+    public String getLeaderTripID() {
+        return leaderTripID;
+    }
+
+    public double getHeadway() {
+        return headway;
+    }
+
+    public double getMeanHeadway() {
+        return meanHeadway;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.decosegfault.atlas.util.HPVector3;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Builds the messages of the delta protocol, which clients opt into by connecting to /socket?protocol=delta.
+ * <p>
+ * All delta clients share one stream. Every broadcast advances the sequence number and the baseline,
+ * and the delta for a broadcast is relative to the previous one. A newly connected client gets a
+ * keyframe first and follows the deltas from then on. Everyone gets a keyframe every
+ * {@value #KEYFRAME_INTERVAL} broadcasts, so a client that missed something recovers on its own.
+ * Only called from the Hermes thread.
+ *
+ * @author Cathy Nguyen
+ */
+public class DeltaProtocol {
+    /** broadcasts between keyframes sent to every delta client */
+    public static final int KEYFRAME_INTERVAL = 30;
+
+    private long seq = 0;
+    /** state as of the previous broadcast, null if there is none */
+    private Map<String, Integer> lastRouteFrequency;
+    private Map<String, Integer> lastVehicleTypes;
+    private Map<String, RouteAdherence> lastRouteAdherence;
+    private Map<String, RoutePerformance> lastRoutePerformance;
+    private List<RouteHeadway> lastRouteHeadways;
+    private List<BunchingAlert> lastBunching;
+    private Map<String, HPVector3> lastInterestPoints;
+    private Map<List<String>, String> lastBusesInInterest;
+
+    private FrontendMessage keyframe;
+    private FrontendMessage delta;
+
+    /**
+     * Moves the stream on to a new broadcast, building both its keyframe and its delta.
+     *
+     * @return true if every delta client must get the keyframe this time
+     */
+    public boolean advance(FrontendData data) {
+        seq++;
+        keyframe = new FrontendMessage();
+        keyframe.type = FrontendMessage.KEYFRAME;
+        keyframe.seq = seq;
+        keyframe.data = data;
+
+        boolean forceKeyframe = lastRouteFrequency == null || seq % KEYFRAME_INTERVAL == 0;
+        delta = forceKeyframe ? null : buildDelta(data);
+
+        lastRouteFrequency = copy(data.getRouteFrequency());
+        lastVehicleTypes = copy(data.getVehicleTypes());
+        lastRouteAdherence = data.getRouteAdherence();
+        lastRoutePerformance = data.getRoutePerformance();
+        lastRouteHeadways = data.getRouteHeadways();
+        lastBunching = data.getBunching();
+        lastInterestPoints = copy(data.getInterestPoints());
+        lastBusesInInterest = copy(data.getBusesInInterest());
+        return forceKeyframe;
+    }
+
+    /**
+     * Forgets the baseline, so the next broadcast is a keyframe for everyone.
+     * Used when there are no delta clients, so deltas aren't worked out for nobody.
+     */
+    public void reset() {
+        lastRouteFrequency = null;
+        keyframe = null;
+        delta = null;
+    }
+
+    /** @return the keyframe of the current broadcast */
+    public FrontendMessage keyframe() {
+        return keyframe;
+    }
+
+    /** @return the delta of the current broadcast, null if this broadcast is keyframes only */
+    public FrontendMessage delta() {
+        return delta;
+    }
+
+    private FrontendMessage buildDelta(FrontendData data) {
+        FrontendMessage message = new FrontendMessage();
+        message.type = FrontendMessage.DELTA;
+        message.seq = seq;
+
+        message.routeFrequency = changed(lastRouteFrequency, data.getRouteFrequency());
+        message.routeFrequencyRemoved = removed(lastRouteFrequency, data.getRouteFrequency());
+        message.vehicleTypes = changed(lastVehicleTypes, data.getVehicleTypes());
+        message.vehicleTypesRemoved = removed(lastVehicleTypes, data.getVehicleTypes());
+
+        List<RouteExpectedReal> expectedReals = data.getRouteExpectedReals();
+        if (expectedReals != null && !expectedReals.isEmpty()) {
+            message.routeExpectedReals = expectedReals;
+        }
+        // adherence is rebuilt as a new map on every feed update, so the same map means nothing changed
+        if (data.getRouteAdherence() != lastRouteAdherence) {
+            message.routeAdherence = data.getRouteAdherence();
+        }
+        // likewise performance and headways are only rebuilt when they change
+        if (data.getRoutePerformance() != lastRoutePerformance) {
+            message.routePerformance = data.getRoutePerformance();
+        }
+        if (data.getRouteHeadways() != lastRouteHeadways) {
+            message.routeHeadways = data.getRouteHeadways();
+        }
+        if (data.getBunching() != lastBunching) {
+            message.bunching = data.getBunching();
+        }
+        if (!Objects.equals(data.getInterestPoints(), lastInterestPoints)) {
+            message.interestPoints = data.getInterestPoints();
+        }
+        if (!Objects.equals(data.getBusesInInterest(), lastBusesInInterest)) {
+            message.busesInInterest = data.getBusesInInterest();
+        }
+        return message;
+    }
+
+    /** @return entries of current that are new or different from previous, null if there are none */
+    private static <K, V> Map<K, V> changed(Map<K, V> previous, Map<K, V> current) {
+        if (current == null) return null;
+        Map<K, V> changed = null;
+        for (Map.Entry<K, V> entry : current.entrySet()) {
+            if (previous != null && Objects.equals(previous.get(entry.getKey()), entry.getValue())) continue;
+            if (changed == null) changed = new HashMap<>();
+            changed.put(entry.getKey(), entry.getValue());
+        }
+        return changed;
+    }
+
+    /** @return keys of previous that are missing from current, null if there are none */
+    private static <K, V> List<K> removed(Map<K, V> previous, Map<K, V> current) {
+        if (previous == null) return null;
+        List<K> removed = null;
+        for (K key : previous.keySet()) {
+            if (current != null && current.containsKey(key)) continue;
+            if (removed == null) removed = new ArrayList<>();
+            removed.add(key);
+        }
+        return removed;
+    }
+
+    private static <K, V> Map<K, V> copy(Map<K, V> map) {
+        return map == null ? null : new HashMap<>(map);
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.decosegfault.atlas.util.HPVector3;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes FrontendData and FrontendMessage in protobuf wire format with a fixed schema, for clients that
+ * connect with ?encoding=binary. Sizes are worked out first so each message is written straight into
+ * one exactly sized array. The schema, in .proto terms:
+ * <pre>
+ * message FrontendData {
+ *   repeated InterestPoint interest_points = 1;
+ *   repeated AffectedRoute buses_in_interest = 2;
+ *   repeated Count route_frequency = 3;
+ *   repeated Count vehicle_types = 4;
+ *   repeated ExpectedReal route_expected_reals = 5;
+ *   repeated Adherence route_adherence = 6;
+ *   repeated Headway route_headways = 7;
+ *   repeated Bunching bunching = 8;
+ *   repeated Performance route_performance = 9;
+ * }
+ * message FrontendMessage {
+ *   uint32 type = 1;                 // 0 keyframe, 1 delta
+ *   uint64 seq = 2;
+ *   FrontendData data = 3;           // keyframes only
+ *   repeated Count route_frequency = 4;
+ *   repeated string route_frequency_removed = 5;
+ *   repeated Count vehicle_types = 6;
+ *   repeated string vehicle_types_removed = 7;
+ *   repeated ExpectedReal route_expected_reals = 8;
+ *   repeated Adherence route_adherence = 9;
+ *   repeated InterestPoint interest_points = 10;
+ *   repeated AffectedRoute buses_in_interest = 11;
+ *   repeated Headway route_headways = 12;
+ *   repeated Bunching bunching = 13;
+ *   repeated Performance route_performance = 14;
+ * }
+ * message InterestPoint { string name = 1; double x = 2; double y = 3; double radius = 4; }
+ * message AffectedRoute { repeated string key = 1; string route = 2; }
+ * message Count { string name = 1; uint32 count = 2; }
+ * message ExpectedReal { string route_name = 1; double expected_time = 2; double actual_time = 3; }
+ * message Adherence {
+ *   string route = 1; uint32 vehicles = 2; double mean_deviation = 3; double min_deviation = 4;
+ *   double max_deviation = 5; uint32 early = 6; uint32 on_time = 7; uint32 late = 8;
+ * }
+ * message Headway {
+ *   string route = 1; string direction = 2; uint32 samples = 3; double mean_headway = 4;
+ *   double std_headway = 5; double headway_cv = 6; uint32 bunched = 7;
+ * }
+ * message Bunching {
+ *   string route = 1; string direction = 2; string trip_id = 3; string leader_trip_id = 4;
+ *   double headway = 5; double mean_headway = 6;
+ * }
+ * message Performance {
+ *   string route = 1; uint64 trips = 2; double mean_deviation = 3; double p10 = 4; double p50 = 5;
+ *   double p90 = 6; double p95 = 7;
+ * }
+ * </pre>
+ * Null or empty repeated fields and null nested messages are left out. Scalars are always written, even
+ * when they are zero, which protobuf decoders read the same as a missing field.
+ *
+ * @author Cathy Nguyen
+ */
+public final class FrontendBinaryEncoder {
+    private FrontendBinaryEncoder() {
+    }
+
+    /** @return the FrontendData as a protobuf FrontendData message */
+    public static byte[] encode(FrontendData data) {
+        byte[] out = new byte[dataSize(data)];
+        CodedOutputStream stream = CodedOutputStream.newInstance(out);
+        try {
+            writeData(stream, data);
+            stream.checkNoSpaceLeft();
+        } catch (IOException e) {
+            // only thrown if the sizes are wrong
+            throw new IllegalStateException("Bad FrontendData size", e);
+        }
+        return out;
+    }
+
+    /** @return the message as a protobuf FrontendMessage message */
+    public static byte[] encode(FrontendMessage message) {
+        byte[] out = new byte[messageSize(message)];
+        CodedOutputStream stream = CodedOutputStream.newInstance(out);
+        try {
+            writeMessage(stream, message);
+            stream.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new IllegalStateException("Bad FrontendMessage size", e);
+        }
+        return out;
+    }
+
+    private static int dataSize(FrontendData data) {
+        return interestPointsSize(1, data.getInterestPoints())
+            + affectedRoutesSize(2, data.getBusesInInterest())
+            + countsSize(3, data.getRouteFrequency())
+            + countsSize(4, data.getVehicleTypes())
+            + expectedRealsSize(5, data.getRouteExpectedReals())
+            + adherenceSize(6, data.getRouteAdherence())
+            + headwaysSize(7, data.getRouteHeadways())
+            + bunchingSize(8, data.getBunching())
+            + performanceSize(9, data.getRoutePerformance());
+    }
+
+    private static void writeData(CodedOutputStream out, FrontendData data) throws IOException {
+        writeInterestPoints(out, 1, data.getInterestPoints());
+        writeAffectedRoutes(out, 2, data.getBusesInInterest());
+        writeCounts(out, 3, data.getRouteFrequency());
+        writeCounts(out, 4, data.getVehicleTypes());
+        writeExpectedReals(out, 5, data.getRouteExpectedReals());
+        writeAdherence(out, 6, data.getRouteAdherence());
+        writeHeadways(out, 7, data.getRouteHeadways());
+        writeBunching(out, 8, data.getBunching());
+        writePerformance(out, 9, data.getRoutePerformance());
+    }
+
+    private static int messageSize(FrontendMessage message) {
+        int size = CodedOutputStream.computeUInt32Size(1, typeOf(message))
+            + CodedOutputStream.computeUInt64Size(2, message.seq);
+        if (message.data != null) {
+            size += nestedSize(3, dataSize(message.data));
+        }
+        return size
+            + countsSize(4, message.routeFrequency)
+            + stringsSize(5, message.routeFrequencyRemoved)
+            + countsSize(6, message.vehicleTypes)
+            + stringsSize(7, message.vehicleTypesRemoved)
+            + expectedRealsSize(8, message.routeExpectedReals)
+            + adherenceSize(9, message.routeAdherence)
+            + interestPointsSize(10, message.interestPoints)
+            + affectedRoutesSize(11, message.busesInInterest)
+            + headwaysSize(12, message.routeHeadways)
+            + bunchingSize(13, message.bunching)
+            + performanceSize(14, message.routePerformance);
+    }
+
+    private static void writeMessage(CodedOutputStream out, FrontendMessage message) throws IOException {
+        out.writeUInt32(1, typeOf(message));
+        out.writeUInt64(2, message.seq);
+        if (message.data != null) {
+            writeNestedHeader(out, 3, dataSize(message.data));
+            writeData(out, message.data);
+        }
+        writeCounts(out, 4, message.routeFrequency);
+        writeStrings(out, 5, message.routeFrequencyRemoved);
+        writeCounts(out, 6, message.vehicleTypes);
+        writeStrings(out, 7, message.vehicleTypesRemoved);
+        writeExpectedReals(out, 8, message.routeExpectedReals);
+        writeAdherence(out, 9, message.routeAdherence);
+        writeInterestPoints(out, 10, message.interestPoints);
+        writeAffectedRoutes(out, 11, message.busesInInterest);
+        writeHeadways(out, 12, message.routeHeadways);
+        writeBunching(out, 13, message.bunching);
+        writePerformance(out, 14, message.routePerformance);
+    }
+
+    private static int typeOf(FrontendMessage message) {
+        return FrontendMessage.DELTA.equals(message.type) ? 1 : 0;
+    }
+
+    private static int nestedSize(int field, int size) {
+        return CodedOutputStream.computeTagSize(field) + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    private static void writeNestedHeader(CodedOutputStream out, int field, int size) throws IOException {
+        out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(size);
+    }
+
+    /** protobuf strings can't be null */
+    private static String str(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static int stringsSize(int field, List<String> strings) {
+        if (strings == null) return 0;
+        int size = 0;
+        for (String s : strings) {
+            size += CodedOutputStream.computeStringSize(field, str(s));
+        }
+        return size;
+    }
+
+    private static void writeStrings(CodedOutputStream out, int field, List<String> strings) throws IOException {
+        if (strings == null) return;
+        for (String s : strings) {
+            out.writeString(field, str(s));
+        }
+    }
+
+    private static int countSize(String name, int count) {
+        return CodedOutputStream.computeStringSize(1, str(name)) + CodedOutputStream.computeUInt32Size(2, count);
+    }
+
+    private static int countsSize(int field, Map<String, Integer> counts) {
+        if (counts == null) return 0;
+        int size = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            size += nestedSize(field, countSize(entry.getKey(), entry.getValue()));
+        }
+        return size;
+    }
+
+    private static void writeCounts(CodedOutputStream out, int field, Map<String, Integer> counts) throws IOException {
+        if (counts == null) return;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            writeNestedHeader(out, field, countSize(entry.getKey(), entry.getValue()));
+            out.writeString(1, str(entry.getKey()));
+            out.writeUInt32(2, entry.getValue());
+        }
+    }
+
+    private static int interestPointSize(String name, HPVector3 point) {
+        return CodedOutputStream.computeStringSize(1, str(name))
+            + CodedOutputStream.computeDoubleSize(2, point.getX())
+            + CodedOutputStream.computeDoubleSize(3, point.getY())
+            + CodedOutputStream.computeDoubleSize(4, point.getZ());
+    }
+
+    private static int interestPointsSize(int field, Map<String, HPVector3> points) {
+        if (points == null) return 0;
+        int size = 0;
+        for (Map.Entry<String, HPVector3> entry : points.entrySet()) {
+            size += nestedSize(field, interestPointSize(entry.getKey(), entry.getValue()));
+        }
+        return size;
+    }
+
+    private static void writeInterestPoints(CodedOutputStream out, int field, Map<String, HPVector3> points)
+        throws IOException {
+        if (points == null) return;
+        for (Map.Entry<String, HPVector3> entry : points.entrySet()) {
+            HPVector3 point = entry.getValue();
+            writeNestedHeader(out, field, interestPointSize(entry.getKey(), point));
+            out.writeString(1, str(entry.getKey()));
+            out.writeDouble(2, point.getX());
+            out.writeDouble(3, point.getY());
+            out.writeDouble(4, point.getZ());
+        }
+    }
+
+    private static int affectedRouteSize(List<String> key, String route) {
+        return stringsSize(1, key) + CodedOutputStream.computeStringSize(2, str(route));
+    }
+
+    private static int affectedRoutesSize(int field, Map<List<String>, String> routes) {
+        if (routes == null) return 0;
+        int size = 0;
+        for (Map.Entry<List<String>, String> entry : routes.entrySet()) {
+            size += nestedSize(field, affectedRouteSize(entry.getKey(), entry.getValue()));
+        }
+        return size;
+    }
+
+    private static void writeAffectedRoutes(CodedOutputStream out, int field, Map<List<String>, String> routes)
+        throws IOException {
+        if (routes == null) return;
+        for (Map.Entry<List<String>, String> entry : routes.entrySet()) {
+            writeNestedHeader(out, field, affectedRouteSize(entry.getKey(), entry.getValue()));
+            writeStrings(out, 1, entry.getKey());
+            out.writeString(2, str(entry.getValue()));
+        }
+    }
+
+    private static int expectedRealSize(RouteExpectedReal expectedReal) {
+        return CodedOutputStream.computeStringSize(1, str(expectedReal.routeName))
+            + CodedOutputStream.computeDoubleSize(2, expectedReal.expectedTime)
+            + CodedOutputStream.computeDoubleSize(3, expectedReal.actualTime);
+    }
+
+    private static int expectedRealsSize(int field, List<RouteExpectedReal> expectedReals) {
+        if (expectedReals == null) return 0;
+        int size = 0;
+        for (RouteExpectedReal expectedReal : expectedReals) {
+            size += nestedSize(field, expectedRealSize(expectedReal));
+        }
+        return size;
+    }
+
+    private static void writeExpectedReals(CodedOutputStream out, int field, List<RouteExpectedReal> expectedReals)
+        throws IOException {
+        if (expectedReals == null) return;
+        for (RouteExpectedReal expectedReal : expectedReals) {
+            writeNestedHeader(out, field, expectedRealSize(expectedReal));
+            out.writeString(1, str(expectedReal.routeName));
+            out.writeDouble(2, expectedReal.expectedTime);
+            out.writeDouble(3, expectedReal.actualTime);
+        }
+    }
+
+    private static int adherenceSize(String route, RouteAdherence adherence) {
+        return CodedOutputStream.computeStringSize(1, str(route))
+            + CodedOutputStream.computeUInt32Size(2, adherence.vehicles)
+            + CodedOutputStream.computeDoubleSize(3, adherence.meanDeviation)
+            + CodedOutputStream.computeDoubleSize(4, adherence.minDeviation)
+            + CodedOutputStream.computeDoubleSize(5, adherence.maxDeviation)
+            + CodedOutputStream.computeUInt32Size(6, adherence.early)
+            + CodedOutputStream.computeUInt32Size(7, adherence.onTime)
+            + CodedOutputStream.computeUInt32Size(8, adherence.late);
+    }
+
+    private static int adherenceSize(int field, Map<String, RouteAdherence> adherence) {
+        if (adherence == null) return 0;
+        int size = 0;
+        for (Map.Entry<String, RouteAdherence> entry : adherence.entrySet()) {
+            size += nestedSize(field, adherenceSize(entry.getKey(), entry.getValue()));
+        }
+        return size;
+    }
+
+    private static void writeAdherence(CodedOutputStream out, int field, Map<String, RouteAdherence> adherence)
+        throws IOException {
+        if (adherence == null) return;
+        for (Map.Entry<String, RouteAdherence> entry : adherence.entrySet()) {
+            RouteAdherence route = entry.getValue();
+            writeNestedHeader(out, field, adherenceSize(entry.getKey(), route));
+            out.writeString(1, str(entry.getKey()));
+            out.writeUInt32(2, route.vehicles);
+            out.writeDouble(3, route.meanDeviation);
+            out.writeDouble(4, route.minDeviation);
+            out.writeDouble(5, route.maxDeviation);
+            out.writeUInt32(6, route.early);
+            out.writeUInt32(7, route.onTime);
+            out.writeUInt32(8, route.late);
+        }
+    }
+
+    private static int headwaySize(RouteHeadway headway) {
+        return CodedOutputStream.computeStringSize(1, str(headway.route))
+            + CodedOutputStream.computeStringSize(2, str(headway.direction))
+            + CodedOutputStream.computeUInt32Size(3, headway.samples)
+            + CodedOutputStream.computeDoubleSize(4, headway.meanHeadway)
+            + CodedOutputStream.computeDoubleSize(5, headway.stdHeadway)
+            + CodedOutputStream.computeDoubleSize(6, headway.headwayCv)
+            + CodedOutputStream.computeUInt32Size(7, headway.bunched);
+    }
+
+    private static int headwaysSize(int field, List<RouteHeadway> headways) {
+        if (headways == null) return 0;
+        int size = 0;
+        for (RouteHeadway headway : headways) {
+            size += nestedSize(field, headwaySize(headway));
+        }
+        return size;
+    }
+
+    private static void writeHeadways(CodedOutputStream out, int field, List<RouteHeadway> headways)
+        throws IOException {
+        if (headways == null) return;
+        for (RouteHeadway headway : headways) {
+            writeNestedHeader(out, field, headwaySize(headway));
+            out.writeString(1, str(headway.route));
+            out.writeString(2, str(headway.direction));
+            out.writeUInt32(3, headway.samples);
+            out.writeDouble(4, headway.meanHeadway);
+            out.writeDouble(5, headway.stdHeadway);
+            out.writeDouble(6, headway.headwayCv);
+            out.writeUInt32(7, headway.bunched);
+        }
+    }
+
+    private static int bunchingSize(BunchingAlert alert) {
+        return CodedOutputStream.computeStringSize(1, str(alert.route))
+            + CodedOutputStream.computeStringSize(2, str(alert.direction))
+            + CodedOutputStream.computeStringSize(3, str(alert.tripID))
+            + CodedOutputStream.computeStringSize(4, str(alert.leaderTripID))
+            + CodedOutputStream.computeDoubleSize(5, alert.headway)
+            + CodedOutputStream.computeDoubleSize(6, alert.meanHeadway);
+    }
+
+    private static int bunchingSize(int field, List<BunchingAlert> bunching) {
+        if (bunching == null) return 0;
+        int size = 0;
+        for (BunchingAlert alert : bunching) {
+            size += nestedSize(field, bunchingSize(alert));
+        }
+        return size;
+    }
+
+    private static void writeBunching(CodedOutputStream out, int field, List<BunchingAlert> bunching)
+        throws IOException {
+        if (bunching == null) return;
+        for (BunchingAlert alert : bunching) {
+            writeNestedHeader(out, field, bunchingSize(alert));
+            out.writeString(1, str(alert.route));
+            out.writeString(2, str(alert.direction));
+            out.writeString(3, str(alert.tripID));
+            out.writeString(4, str(alert.leaderTripID));
+            out.writeDouble(5, alert.headway);
+            out.writeDouble(6, alert.meanHeadway);
+        }
+    }
+
+    private static int performanceSize(String route, RoutePerformance performance) {
+        return CodedOutputStream.computeStringSize(1, str(route))
+            + CodedOutputStream.computeUInt64Size(2, performance.trips)
+            + CodedOutputStream.computeDoubleSize(3, performance.meanDeviation)
+            + CodedOutputStream.computeDoubleSize(4, performance.p10)
+            + CodedOutputStream.computeDoubleSize(5, performance.p50)
+            + CodedOutputStream.computeDoubleSize(6, performance.p90)
+            + CodedOutputStream.computeDoubleSize(7, performance.p95);
+    }
+
+    private static int performanceSize(int field, Map<String, RoutePerformance> performance) {
+        if (performance == null) return 0;
+        int size = 0;
+        for (Map.Entry<String, RoutePerformance> entry : performance.entrySet()) {
+            size += nestedSize(field, performanceSize(entry.getKey(), entry.getValue()));
+        }
+        return size;
+    }
+
+    private static void writePerformance(CodedOutputStream out, int field, Map<String, RoutePerformance> performance)
+        throws IOException {
+        if (performance == null) return;
+        for (Map.Entry<String, RoutePerformance> entry : performance.entrySet()) {
+            RoutePerformance route = entry.getValue();
+            writeNestedHeader(out, field, performanceSize(entry.getKey(), route));
+            out.writeString(1, str(entry.getKey()));
+            out.writeUInt64(2, route.trips);
+            out.writeDouble(3, route.meanDeviation);
+            out.writeDouble(4, route.p10);
+            out.writeDouble(5, route.p50);
+            out.writeDouble(6, route.p90);
+            out.writeDouble(7, route.p95);
+        }
+    }
+}
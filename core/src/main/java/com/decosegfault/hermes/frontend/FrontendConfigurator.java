@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import javax.websocket.Extension;
+import javax.websocket.server.ServerEndpointConfig;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Negotiates per-message compression (permessage-deflate) on the frontend sockets. Clients that offer it
+ * get their messages deflated, which shrinks the JSON frames several times over. Turn it off with
+ * -Dhermes.compression=false to save server CPU on a fast local network.
+ *
+ * @author Cathy Nguyen
+ */
+public class FrontendConfigurator extends ServerEndpointConfig.Configurator {
+    public static final String DEFLATE = "permessage-deflate";
+    public static final boolean COMPRESSION = Boolean.parseBoolean(System.getProperty("hermes.compression", "true"));
+
+    @Override
+    public List<Extension> getNegotiatedExtensions(List<Extension> installed, List<Extension> requested) {
+        List<Extension> negotiated = new ArrayList<>();
+        for (Extension extension : requested) {
+            if (!COMPRESSION && extension.getName().equals(DEFLATE)) continue;
+            for (Extension available : installed) {
+                if (available.getName().equals(extension.getName())) {
+                    negotiated.add(extension);
+                    break;
+                }
+            }
+        }
+        return negotiated;
+    }
+}
@@ -29,9 +29,22 @@ public class FrontendData {
     // number of vehicles in the entire simulation per type (pie chart)
     private Map<String, Integer> vehicleTypes;
 
-    // expected vs real route arrival time
+    // expected vs real route arrival time, of every trip finished since the previous broadcast
     private List<RouteExpectedReal> routeExpectedReals;
 
+    // percentiles of how late trips finished per route, over the whole run
+    private Map<String, RoutePerformance> routePerformance;
+
+    // schedule adherence of live vehicles per route (adherence mode only)
+    private Map<String, RouteAdherence> routeAdherence;
+
+    // headway statistics per route and direction, and vehicles bunched right now
+    private List<RouteHeadway> routeHeadways;
+    private List<BunchingAlert> bunching;
+
+    // every visible vehicle, only used server side for filtering so never serialised
+    private transient VehicleSnapshot vehicles;
+
     public Map<String, HPVector3> getInterestPoints() {
         return interestPoints;
     }
@@ -71,4 +84,44 @@ public class FrontendData {
     public void setRouteExpectedReals(List<RouteExpectedReal> routeExpectedReals) {
         this.routeExpectedReals = routeExpectedReals;
     }
+
+    public Map<String, RoutePerformance> getRoutePerformance() {
+        return routePerformance;
+    }
+
+    public void setRoutePerformance(Map<String, RoutePerformance> routePerformance) {
+        this.routePerformance = routePerformance;
+    }
+
+    public Map<String, RouteAdherence> getRouteAdherence() {
+        return routeAdherence;
+    }
+
+    public void setRouteAdherence(Map<String, RouteAdherence> routeAdherence) {
+        this.routeAdherence = routeAdherence;
+    }
+
+    public List<RouteHeadway> getRouteHeadways() {
+        return routeHeadways;
+    }
+
+    public void setRouteHeadways(List<RouteHeadway> routeHeadways) {
+        this.routeHeadways = routeHeadways;
+    }
+
+    public List<BunchingAlert> getBunching() {
+        return bunching;
+    }
+
+    public void setBunching(List<BunchingAlert> bunching) {
+        this.bunching = bunching;
+    }
+
+    public VehicleSnapshot getVehicles() {
+        return vehicles;
+    }
+
+    public void setVehicles(VehicleSnapshot vehicles) {
+        this.vehicles = vehicles;
+    }
 }
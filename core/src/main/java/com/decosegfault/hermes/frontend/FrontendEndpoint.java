@@ -10,27 +10,161 @@
 
 package com.decosegfault.hermes.frontend;
 
+import com.decosegfault.hermes.HermesSim;
+import com.decosegfault.hermes.Zone;
+import com.decosegfault.hermes.ZoneTracker;
+import com.google.common.base.Utf8;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.annotations.SerializedName;
 import org.tinylog.Logger;
 
 import javax.websocket.*;
 import javax.websocket.server.ServerEndpoint;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Clients get the full FrontendData on every broadcast, unless they connect with ?protocol=delta, in
+ * which case they get a keyframe and then only what changed, see {@link DeltaProtocol}.
+ * Messages are JSON text, or protobuf binary messages for clients that connect with ?encoding=binary,
+ * see {@link FrontendBinaryEncoder}. The two options can be combined.
+ * <p>
+ * Frames are sent asynchronously, so a slow client never blocks the Hermes thread. Each client has a
+ * small bounded queue; if it fills up, the queued frames are stale and get dropped. Full state clients
+ * only ever need the newest frame, and delta clients are sent a fresh keyframe instead. How far behind
+ * each client is can be read from /metrics, see {@link MetricsServlet}.
+ * <p>
+ * A client can send a {@link Subscription} to only get the routes, vehicle types and area it cares about,
+ * at a limited rate. Subscribed clients get their own filtered payload, encoded just for them, and their
+ * own delta stream if they use the delta protocol.
+ * <p>
+ * Every broadcast is also kept in a {@link HistoryBuffer}. A client can send
+ * {"type": "history", "from": epoch millis, "to": epoch millis} to get the history in between, answered
+ * with a JSON text message whatever its encoding. The same query is served over HTTP by {@link HistoryServlet}.
+ * <p>
+ * A client can connect with ?rate=messages per second to be sent fewer broadcasts than HermesSim
+ * publishes. This is the same as subscribing to everything at that rate, so a delta client's deltas are
+ * worked out against the last message it was sent. Per-message compression is negotiated by
+ * {@link FrontendConfigurator}. The largest message a client may send grows with the broadcasts, so a
+ * subscription listing every route of a big network always fits.
+ * <p>
+ * Clients share a set of zones they can change at runtime:
+ * {"type": "addZone", "name", "lat", "long", "radius": metres} for a circle,
+ * {"type": "addZone", "name", "polygon": [[lat, long], ...]} for a polygon,
+ * {"type": "moveZone", "name", "lat", "long"} and {"type": "removeZone", "name"}. A client that has sent any
+ * of these, or {"type": "watchZones"}, is sent a JSON text message whenever vehicles enter or leave a zone,
+ * with the events and how many vehicles are in each zone, see {@link ZoneTracker}. Zone messages are sent no
+ * faster than the client's rate; updates that come in meanwhile are merged into one message, with
+ * "missedEvents" counting any events dropped because too many piled up. A zone message that can't be applied
+ * is answered with {"type": "zoneError", "message"}.
+ *
  * @author Cathy Nguyen, Matt Young
  * Reference: baeldung.com/java-websockets
  */
-@ServerEndpoint(value="/socket", encoders=FrontendDataEncoder.class, decoders=FrontendDataDecoder.class)
+@ServerEndpoint(value="/socket", encoders=FrontendDataEncoder.class, decoders=FrontendDataDecoder.class,
+    configurator=FrontendConfigurator.class)
 public class FrontendEndpoint {
+    /** most broadcasts a delta client can have queued, not counting replies, before it is skipped ahead to a keyframe */
+    public static final int MAX_QUEUE = 4;
+
     private static final Set<FrontendEndpoint> endpoints = ConcurrentHashMap.newKeySet();
+    private static final DeltaProtocol deltaProtocol = new DeltaProtocol();
+    /** number of the latest broadcast */
+    private static volatile long broadcastSeq = 0;
+    /** recent broadcasts, for clients that connect late */
+    public static final HistoryBuffer history = new HistoryBuffer();
+    /** largest message a client may send us, grown to twice the largest broadcast */
+    private static volatile int messageLimit = 64 * 1024;
     public Session session;
 
+    /** true if this client speaks the delta protocol */
+    private boolean delta = false;
+    /** true if this client wants binary messages rather than JSON */
+    private boolean binary = false;
+    /** true until this delta client has been sent its first keyframe, or after it fell behind */
+    private volatile boolean needsKeyframe = true;
+
+    // outbound queue, guarded by this
+    private final ArrayDeque<OutboundFrame> queue = new ArrayDeque<>();
+    /** frame currently being sent, null if idle */
+    private OutboundFrame inFlight;
+    /** broadcast number of the last frame the client received */
+    private long deliveredSeq;
+    /** broadcast number of the last frame queued for the client */
+    private long queuedSeq;
+    private long dropped = 0;
+    /** zone update waiting to be sent, merged with any that come in before it goes */
+    private ZoneTracker.ZoneUpdate pendingZones;
+    /** pendingZones already encoded, null if it has to be encoded for this client */
+    private String pendingZonesText;
+    private long lastZonesNanos = Long.MIN_VALUE;
+
+    /** what this client wants to receive, null for everything */
+    private volatile Subscription subscription;
+    /** delta stream of this client alone, only used while it is subscribed */
+    private DeltaProtocol subscriptionProtocol;
+    /** true once this client has asked about zones, so it is sent zone events */
+    private volatile boolean watchingZones = false;
+    private static final Gson gson = new Gson();
+
+    /** a zone message from the client */
+    private static final class ZoneRequest {
+        String type;
+        String name;
+        Double lat;
+        @SerializedName("long")
+        Double lon;
+        Double radius;
+        double[][] polygon;
+    }
+
+    /** one encoded frame waiting to go to one client */
+    private static final class OutboundFrame {
+        final String text;
+        final ByteBuffer binary;
+        /** broadcast number, or -1 for a reply to the client which is never stale */
+        final long seq;
+        final long queuedNanos = System.nanoTime();
+
+        OutboundFrame(String text, ByteBuffer binary, long seq) {
+            this.text = text;
+            this.binary = binary;
+            this.seq = seq;
+        }
+    }
+
     @OnOpen
     public void onOpen(Session session) throws IOException {
-        endpoints.add(this);
         this.session = session;
+        List<String> protocol = session.getRequestParameterMap().get("protocol");
+        delta = protocol != null && protocol.contains("delta");
+        List<String> encoding = session.getRequestParameterMap().get("encoding");
+        binary = encoding != null && encoding.contains("binary");
+        List<String> rate = session.getRequestParameterMap().get("rate");
+        if (rate != null && !rate.isEmpty()) {
+            try {
+                double perSecond = Double.parseDouble(rate.get(0));
+                if (perSecond > 0) {
+                    subscription = Subscription.everything(perSecond);
+                    subscriptionProtocol = new DeltaProtocol();
+                }
+            } catch (NumberFormatException e) {
+                Logger.warn("Bad rate {} from client {}", rate.get(0), session.getId());
+            }
+        }
+        session.setMaxTextMessageBufferSize(messageLimit);
+        session.setMaxBinaryMessageBufferSize(messageLimit);
+        deliveredSeq = broadcastSeq;
+        queuedSeq = deliveredSeq;
+        endpoints.add(this);
     }
 
     @OnClose
@@ -38,21 +172,336 @@ public class FrontendEndpoint {
         endpoints.remove(this);
     }
 
+    /**
+     * Handles a subscribe, unsubscribe, history or zone message from the client.
+     */
+    @OnMessage
+    public void onMessage(String message, Session session) {
+        Subscription request;
+        try {
+            JsonObject json = JsonParser.parseString(message).getAsJsonObject();
+            String type = json.has("type") ? json.get("type").getAsString() : "";
+            if (type.equals("history")) {
+                long to = json.has("to") ? json.get("to").getAsLong() : System.currentTimeMillis();
+                long from = json.has("from") ? json.get("from").getAsLong() : to - HistoryServlet.DEFAULT_RANGE;
+                reply(gson.toJson(history.query(from, to)));
+                return;
+            }
+            if (type.endsWith("Zone") || type.equals("watchZones")) {
+                try {
+                    handleZone(gson.fromJson(json, ZoneRequest.class));
+                } catch (IllegalArgumentException e) {
+                    JsonObject error = new JsonObject();
+                    error.addProperty("type", "zoneError");
+                    error.addProperty("message", e.getMessage());
+                    reply(error.toString());
+                    throw e;
+                }
+                watchingZones = true;
+                return;
+            }
+            request = gson.fromJson(json, Subscription.class);
+            if (request == null || request.type == null) throw new IllegalArgumentException("no type");
+            if (request.type.equals("subscribe")) {
+                request.compile();
+            } else if (!request.type.equals("unsubscribe")) {
+                throw new IllegalArgumentException("unknown type " + request.type);
+            }
+        } catch (RuntimeException e) {
+            Logger.warn("Bad message from client {}: {}", session.getId(), e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            if (request.type.equals("subscribe")) {
+                subscription = request;
+                subscriptionProtocol = new DeltaProtocol();
+                Logger.info("Client {} subscribed to {}", session.getId(), request);
+            } else {
+                subscription = null;
+                subscriptionProtocol = null;
+                Logger.info("Client {} unsubscribed", session.getId());
+            }
+            // the filtered stream starts over
+            needsKeyframe = true;
+        }
+    }
+
+    /**
+     * Passes a zone change on to HermesSim, applied on the next tick.
+     */
+    private static void handleZone(ZoneRequest request) {
+        if (request.type.equals("watchZones")) return;
+        if (request.name == null) throw new IllegalArgumentException("zone has no name");
+        switch (request.type) {
+            case "addZone":
+                if (request.polygon != null) {
+                    HermesSim.zones.add(Zone.polygon(request.name, request.polygon));
+                } else if (request.lat != null && request.lon != null && request.radius != null) {
+                    HermesSim.zones.add(Zone.circle(request.name, request.lat, request.lon, request.radius));
+                } else {
+                    throw new IllegalArgumentException("zone needs a polygon or lat, long and radius");
+                }
+                break;
+            case "moveZone":
+                if (request.lat == null || request.lon == null) throw new IllegalArgumentException("no lat/long");
+                HermesSim.zones.move(request.name, request.lat, request.lon);
+                break;
+            case "removeZone":
+                HermesSim.zones.remove(request.name);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown type " + request.type);
+        }
+    }
+
     @OnError
     public void onError(Session session, Throwable throwable) {
         System.err.printf("Error encountered: %s", session.getId());
         Logger.warn(throwable);
     }
 
+    /** @return every connected client */
+    public static Collection<FrontendEndpoint> clients() {
+        return Collections.unmodifiableSet(endpoints);
+    }
+
+    /**
+     * @return how many broadcasts the last one queued for this client is ahead of the last one it received,
+     * 0 if it has everything it was sent. Broadcasts skipped for the client's rate or subscription don't count.
+     */
+    public synchronized long lagFrames() {
+        return Math.max(0, queuedSeq - deliveredSeq);
+    }
+
+    /** @return seconds the oldest undelivered frame has been waiting, 0 if nothing is waiting */
+    public synchronized double lagSeconds() {
+        OutboundFrame oldest = inFlight != null ? inFlight : queue.peekFirst();
+        return oldest == null ? 0 : (System.nanoTime() - oldest.queuedNanos) / 1e9;
+    }
+
+    /** @return frames waiting to be sent, including the one being sent */
+    public synchronized int queued() {
+        return queue.size() + (inFlight != null ? 1 : 0);
+    }
+
+    /** @return frames dropped because this client couldn't keep up */
+    public synchronized long dropped() {
+        return dropped;
+    }
+
+    /**
+     * Sends the latest data to every client. Each payload variant is encoded once and the same encoded
+     * frame is queued for every client that wants it, see {@link BroadcastFrames}.
+     */
     public static void broadcast(FrontendData message) {
+        long seq = ++broadcastSeq;
+        long now = System.nanoTime();
+        history.record(System.currentTimeMillis(), message);
+        boolean anyDelta = false;
         for (FrontendEndpoint endpoint : endpoints) {
-            try {
-                endpoint.session.getBasicRemote().sendObject(message);
-                Logger.debug("Sent data {} to client {}", message, endpoint.session.getId());
-            } catch (IOException | EncodeException e) {
-                Logger.warn("Failed to send message to client: {}", message);
-                Logger.warn(e);
+            anyDelta |= endpoint.delta && endpoint.subscription == null;
+        }
+        boolean forceKeyframe = false;
+        if (anyDelta) {
+            forceKeyframe = deltaProtocol.advance(message);
+        } else {
+            deltaProtocol.reset();
+        }
+        BroadcastFrames frames = new BroadcastFrames(message, deltaProtocol.keyframe(), deltaProtocol.delta());
+
+        for (FrontendEndpoint endpoint : endpoints) {
+            endpoint.flushZones();
+            if (endpoint.subscription != null) {
+                endpoint.sendSubscribed(message, seq, now);
+                continue;
+            }
+            int kind = BroadcastFrames.FULL;
+            if (endpoint.delta) {
+                // connected after the stream was advanced, it gets its keyframe next time
+                if (!frames.has(BroadcastFrames.KEYFRAME)) continue;
+                if (forceKeyframe || endpoint.needsKeyframe) {
+                    kind = BroadcastFrames.KEYFRAME;
+                    endpoint.needsKeyframe = false;
+                } else {
+                    kind = BroadcastFrames.DELTA;
+                }
+            }
+            OutboundFrame frame = endpoint.binary
+                ? new OutboundFrame(null, frames.binary(kind), seq)
+                : new OutboundFrame(frames.text(kind), null, seq);
+            endpoint.enqueue(frame, kind != BroadcastFrames.DELTA);
+        }
+    }
+
+    /**
+     * Sends zone events and occupancy to every client watching zones. Each client has at most one zone
+     * message waiting, which later updates are merged into, so a slow client never queues more than that.
+     */
+    public static void sendZones(ZoneTracker.ZoneUpdate update) {
+        String text = null;
+        for (FrontendEndpoint endpoint : endpoints) {
+            if (!endpoint.watchingZones) continue;
+            if (text == null) text = gson.toJson(update);
+            endpoint.queueZones(update, text);
+        }
+    }
+
+    /**
+     * Merges a zone update into the one waiting for this client, and sends it if the client is idle.
+     *
+     * @param text the update encoded, used if nothing was waiting
+     */
+    private synchronized void queueZones(ZoneTracker.ZoneUpdate update, String text) {
+        if (pendingZones == null) {
+            pendingZones = update;
+            pendingZonesText = text;
+        } else {
+            pendingZones = pendingZones.merge(update);
+            pendingZonesText = null;
+        }
+        if (inFlight == null) sendNext();
+    }
+
+    /** Sends the waiting zone update if the client is idle and it has become due. */
+    private synchronized void flushZones() {
+        if (pendingZones != null && inFlight == null) sendNext();
+    }
+
+    /** @return true if this client's rate allows another zone message. Must hold the lock. */
+    private boolean zonesDue(long now) {
+        Subscription current = subscription;
+        long minIntervalNanos = current == null ? 0 : current.minIntervalNanos();
+        return minIntervalNanos == 0 || lastZonesNanos == Long.MIN_VALUE
+            || now - lastZonesNanos >= minIntervalNanos;
+    }
+
+    /**
+     * Raises the limit on incoming messages if a broadcast of this size shows the network has outgrown it.
+     *
+     * @param size of the broadcast in bytes, UTF-8 for text
+     */
+    private static void growMessageLimit(int size) {
+        if (size * 2 <= messageLimit) return;
+        int limit = messageLimit;
+        while (limit < size * 2) limit *= 2;
+        messageLimit = limit;
+        Logger.info("Raised frontend message limit to {} bytes", limit);
+        for (FrontendEndpoint endpoint : endpoints) {
+            endpoint.session.setMaxTextMessageBufferSize(limit);
+            endpoint.session.setMaxBinaryMessageBufferSize(limit);
+        }
+    }
+
+    /**
+     * Filters the data through this client's subscription and queues it, if the client is due a message.
+     */
+    private synchronized void sendSubscribed(FrontendData message, long seq, long now) {
+        Subscription current = subscription;
+        if (current == null || !current.due(now)) return;
+        FrontendData filtered = current.filter(message);
+
+        int kind = BroadcastFrames.FULL;
+        BroadcastFrames frames;
+        if (delta) {
+            boolean forceKeyframe = subscriptionProtocol.advance(filtered);
+            frames = new BroadcastFrames(filtered, subscriptionProtocol.keyframe(), subscriptionProtocol.delta());
+            kind = forceKeyframe || needsKeyframe ? BroadcastFrames.KEYFRAME : BroadcastFrames.DELTA;
+            needsKeyframe = false;
+        } else {
+            frames = new BroadcastFrames(filtered, null, null);
+        }
+        OutboundFrame frame = binary
+            ? new OutboundFrame(null, frames.binary(kind), seq)
+            : new OutboundFrame(frames.text(kind), null, seq);
+        enqueue(frame, kind != BroadcastFrames.DELTA);
+    }
+
+    /**
+     * Queues a frame, dropping stale ones if the client has fallen behind.
+     *
+     * @param supersedes true if the frame holds the full state, so anything queued before it is stale
+     */
+    private synchronized void enqueue(OutboundFrame frame, boolean supersedes) {
+        int size = frame.binary != null ? frame.binary.remaining() : frame.text.length();
+        // a char is up to 3 bytes of UTF-8, only count them exactly if the limit could be reached
+        if (frame.text != null && size * 3 * 2 > messageLimit) size = Utf8.encodedLength(frame.text);
+        growMessageLimit(size);
+        if (supersedes) {
+            dropStale();
+        } else if (queuedBroadcasts() >= MAX_QUEUE) {
+            // too far behind to catch up on deltas, skip ahead to a keyframe on the next broadcast
+            dropped++;
+            dropStale();
+            needsKeyframe = true;
+            return;
+        }
+        queue.addLast(frame);
+        queuedSeq = Math.max(queuedSeq, frame.seq);
+        if (inFlight == null) sendNext();
+    }
+
+    /** @return broadcasts in the queue, not counting replies. Must hold the lock. */
+    private int queuedBroadcasts() {
+        int count = 0;
+        for (OutboundFrame queued : queue) {
+            if (queued.seq >= 0) count++;
+        }
+        return count;
+    }
+
+    /** Drops every queued broadcast, keeping replies. Must hold the lock. */
+    private void dropStale() {
+        int before = queue.size();
+        queue.removeIf(queued -> queued.seq >= 0);
+        dropped += before - queue.size();
+    }
+
+    /** Queues a text reply to something the client asked for. */
+    private synchronized void reply(String text) {
+        queue.addLast(new OutboundFrame(text, null, -1));
+        if (inFlight == null) sendNext();
+    }
+
+    /** Starts sending the waiting zone update if it is due, else the next queued frame, if any. Must hold the lock. */
+    private void sendNext() {
+        long now = System.nanoTime();
+        if (pendingZones != null && zonesDue(now)) {
+            String text = pendingZonesText != null ? pendingZonesText : gson.toJson(pendingZones);
+            inFlight = new OutboundFrame(text, null, -1);
+            pendingZones = null;
+            pendingZonesText = null;
+            lastZonesNanos = now;
+        } else {
+            inFlight = queue.pollFirst();
+        }
+        if (inFlight == null) return;
+        OutboundFrame frame = inFlight;
+        try {
+            if (frame.binary != null) {
+                session.getAsyncRemote().sendBinary(frame.binary, result -> onSent(frame, result));
+            } else {
+                session.getAsyncRemote().sendText(frame.text, result -> onSent(frame, result));
             }
+        } catch (IllegalStateException e) {
+            // session closed under us
+            inFlight = null;
+            queue.clear();
+            pendingZones = null;
+            pendingZonesText = null;
+        }
+    }
+
+    private synchronized void onSent(OutboundFrame frame, SendResult result) {
+        if (result.isOK()) {
+            deliveredSeq = Math.max(deliveredSeq, frame.seq);
+            Logger.debug("Sent frame {} to client {}", frame.seq, session.getId());
+        } else {
+            Logger.warn("Failed to send message to client: {}", session.getId());
+            Logger.warn(result.getException());
+            // a missing delta would corrupt the client's state
+            if (delta) needsKeyframe = true;
         }
+        inFlight = null;
+        sendNext();
     }
 }
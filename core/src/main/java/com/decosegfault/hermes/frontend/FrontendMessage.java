@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.decosegfault.atlas.util.HPVector3;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A message in the delta protocol, see {@link DeltaProtocol}.
+ * Either a keyframe carrying the full FrontendData, or a delta carrying only what changed since the
+ * previous message. Fields that didn't change are left null, so they are left out of the JSON.
+ *
+ * @author Cathy Nguyen
+ */
+public class FrontendMessage {
+    public static final String KEYFRAME = "keyframe";
+    public static final String DELTA = "delta";
+
+    // KEYFRAME or DELTA
+    String type;
+
+    // increases by one every broadcast, a client that sees a gap should reconnect for a new keyframe
+    long seq;
+
+    // full state, keyframes only
+    FrontendData data;
+
+    // changed or added route frequencies, and routes that no longer have any vehicles
+    Map<String, Integer> routeFrequency;
+    List<String> routeFrequencyRemoved;
+
+    // changed or added vehicle type counts, and types that no longer have any vehicles
+    Map<String, Integer> vehicleTypes;
+    List<String> vehicleTypesRemoved;
+
+    // expected vs real arrivals since the previous message
+    List<RouteExpectedReal> routeExpectedReals;
+
+    // only sent when they change
+    Map<String, RouteAdherence> routeAdherence;
+    Map<String, RoutePerformance> routePerformance;
+    List<RouteHeadway> routeHeadways;
+    List<BunchingAlert> bunching;
+    Map<String, HPVector3> interestPoints;
+    Map<List<String>, String> busesInInterest;
+
+    public String getType() {
+        return type;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public FrontendData getData() {
+        return data;
+    }
+
+    public Map<String, Integer> getRouteFrequency() {
+        return routeFrequency;
+    }
+
+    public List<String> getRouteFrequencyRemoved() {
+        return routeFrequencyRemoved;
+    }
+
+    public Map<String, Integer> getVehicleTypes() {
+        return vehicleTypes;
+    }
+
+    public List<String> getVehicleTypesRemoved() {
+        return vehicleTypesRemoved;
+    }
+
+    public List<RouteExpectedReal> getRouteExpectedReals() {
+        return routeExpectedReals;
+    }
+
+    public Map<String, RouteAdherence> getRouteAdherence() {
+        return routeAdherence;
+    }
+
+    public Map<String, RoutePerformance> getRoutePerformance() {
+        return routePerformance;
+    }
+
+    public List<RouteHeadway> getRouteHeadways() {
+        return routeHeadways;
+    }
+
+    public List<BunchingAlert> getBunching() {
+        return bunching;
+    }
+
+    public Map<String, HPVector3> getInterestPoints() {
+        return interestPoints;
+    }
+
+    public Map<List<String>, String> getBusesInInterest() {
+        return busesInInterest;
+    }
+}
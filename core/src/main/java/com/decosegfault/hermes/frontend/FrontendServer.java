@@ -10,9 +10,11 @@
 
 package com.decosegfault.hermes.frontend;
 
+import com.decosegfault.hermes.HermesSim;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.websocket.javax.server.config.JavaxWebSocketServletContainerInitializer;
 import org.tinylog.Logger;
 
@@ -37,6 +39,21 @@ public class FrontendServer {
         context.setContextPath("/");
         server.setHandler(context);
 
+        // per-client lag and drop counts of the socket
+        context.addServlet(new ServletHolder(new MetricsServlet()), "/metrics");
+        // recent broadcasts for dashboards that connect late
+        context.addServlet(new ServletHolder(new HistoryServlet()), "/history");
+        // routes, shapes and interest points, built once after load
+        context.addServlet(new ServletHolder(new NetworkServlet()), "/network/*");
+        // the simulated vehicles for GTFS-RT consumers
+        context.addServlet(new ServletHolder(new GtfsRealtimeServlet()), "/gtfsrt/VehiclePositions");
+        // on time performance percentiles
+        context.addServlet(new ServletHolder(new PerformanceServlet(HermesSim.performance)), "/performance");
+        // where vehicles have been, as map tiles
+        context.addServlet(new ServletHolder(new HeatmapServlet(HermesSim.heatmap)), "/heatmap/*");
+        // which vehicles are near a point
+        context.addServlet(new ServletHolder(new NearbyServlet(HermesSim.vehicleIndex)), "/nearby");
+
         // Initialize javax.websocket layer
         JavaxWebSocketServletContainerInitializer.configure(context, (servletContext, wsContainer) ->
         {
@@ -45,10 +62,13 @@ public class FrontendServer {
             // and configure  your websocket container.
 
             // Configure defaults for container
-            wsContainer.setDefaultMaxTextMessageBufferSize(65535);
+            // starting limits, FrontendEndpoint raises them per session as the broadcasts grow
+            wsContainer.setDefaultMaxTextMessageBufferSize(64 * 1024);
+            wsContainer.setDefaultMaxBinaryMessageBufferSize(64 * 1024);
 
             // Add WebSocket endpoint to javax.websocket layer
             wsContainer.addEndpoint(FrontendEndpoint.class);
+            wsContainer.addEndpoint(VehicleStreamEndpoint.class);
         });
     }
 
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves the simulated vehicles as a GTFS-RT VehiclePositions feed at /gtfsrt/VehiclePositions.
+ * <p>
+ * The feed is encoded on the Hermes thread at most once per tick and kept as bytes, so any number of
+ * consumers polling it just get the same array written out. Hermes only encodes it while someone has
+ * polled in the last minute; the first poll after a quiet spell gets the last feed encoded, which says how
+ * old it is in its header timestamp, and only a poll before anything was ever encoded gets a 503.
+ *
+ * @author Cathy Nguyen
+ */
+public class GtfsRealtimeServlet extends HttpServlet {
+    /** how long after the last poll the feed keeps being encoded */
+    private static final long IDLE_NANOS = 60_000_000_000L;
+
+    private static final VehiclePositionsEncoder encoder = new VehiclePositionsEncoder();
+    private static volatile byte[] latest;
+    private static volatile long lastRequestNanos = Long.MIN_VALUE;
+
+    /**
+     * @return true if someone is polling the feed, so it should be encoded this tick
+     */
+    public static boolean wanted(long nowNanos) {
+        long last = lastRequestNanos;
+        return last != Long.MIN_VALUE && nowNanos - last < IDLE_NANOS;
+    }
+
+    /**
+     * Encodes the vehicles as the latest feed. Must be called from the Hermes thread.
+     *
+     * @param timestamp POSIX seconds of the snapshot
+     */
+    public static void publish(VehicleSnapshot vehicles, long timestamp) {
+        latest = encoder.encode(vehicles, timestamp);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // starts encoding again from the next tick, if it had stopped
+        lastRequestNanos = System.nanoTime();
+        byte[] feed = latest;
+        if (feed == null) {
+            response.setHeader("Retry-After", "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Feed not encoded yet");
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/x-protobuf");
+        response.setContentLength(feed.length);
+        response.getOutputStream().write(feed);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.decosegfault.atlas.util.AtlasUtils;
+import com.decosegfault.hermes.HeatmapAccumulator;
+
+import javax.imageio.ImageIO;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the vehicle heatmap as 256 pixel PNG tiles at /heatmap/z/x/y.png, in the same slippy tile scheme
+ * as the map tiles, so it can be laid over them. See {@link HeatmapAccumulator}.
+ * <p>
+ * Each pixel is drawn from the level whose cells are the size of a pixel, and coloured from transparent
+ * through blue and yellow to red on a log scale of its count over the busiest cell in that level, so
+ * neighbouring tiles match. Tiles off the grid are blank. Tiles are drawn on request and never cached,
+ * since the counts change every tick.
+ *
+ * @author Cathy Nguyen
+ */
+public class HeatmapServlet extends HttpServlet {
+    public static final int TILE_SIZE = 256;
+    /** colour ramp, alpha, red, green, blue */
+    private static final double[][] STOPS = {
+        {96, 0, 0, 255},
+        {160, 0, 255, 255},
+        {208, 255, 255, 0},
+        {240, 255, 0, 0},
+    };
+    private static final Pattern PATH = Pattern.compile("/(\\d+)/(\\d+)/(\\d+)\\.png");
+
+    private final HeatmapAccumulator heatmap;
+    private final byte[] blankTile;
+
+    public HeatmapServlet(HeatmapAccumulator heatmap) {
+        this.heatmap = heatmap;
+        try {
+            blankTile = png(new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode blank heatmap tile", e);
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Matcher matcher = PATH.matcher(request.getPathInfo() == null ? "" : request.getPathInfo());
+        int zoom;
+        long tileX;
+        long tileY;
+        try {
+            if (!matcher.matches()) throw new NumberFormatException();
+            zoom = Integer.parseInt(matcher.group(1));
+            tileX = Long.parseLong(matcher.group(2));
+            tileY = Long.parseLong(matcher.group(3));
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "tiles are /heatmap/z/x/y.png");
+            return;
+        }
+        if (zoom > AtlasUtils.INSTANCE.getMAX_ZOOM() || tileX >= 1L << zoom || tileY >= 1L << zoom) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "no such tile");
+            return;
+        }
+
+        byte[] tile = heatmap.overlaps(zoom, tileX, tileY) ? png(draw(zoom, tileX, tileY)) : blankTile;
+        response.setContentType("image/png");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setContentLength(tile.length);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getOutputStream().write(tile);
+    }
+
+    private BufferedImage draw(int zoom, long tileX, long tileY) {
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        int shift = heatmap.pixelZoom() - zoom;
+        // pixel size in slippy coords at pixel zoom, at least 1 when zoomed in past pixel zoom
+        long pixelSize = Math.max(1, (1L << shift) / TILE_SIZE);
+        int level = heatmap.levelFor(pixelSize);
+        int max = heatmap.maxCount(level);
+        if (max == 0) return image;
+        double scale = Math.log1p(max);
+
+        int[] row = new int[TILE_SIZE];
+        for (int py = 0; py < TILE_SIZE; py++) {
+            long y = (tileY << shift) + ((long) py << shift) / TILE_SIZE;
+            for (int px = 0; px < TILE_SIZE; px++) {
+                long x = (tileX << shift) + ((long) px << shift) / TILE_SIZE;
+                int count = heatmap.count(level, x, y);
+                row[px] = count == 0 ? 0 : colour(Math.log1p(count) / scale);
+            }
+            image.setRGB(0, py, TILE_SIZE, 1, row, 0, TILE_SIZE);
+        }
+        return image;
+    }
+
+    /**
+     * @param heat 0 to 1
+     * @return ARGB from translucent blue through cyan and yellow to opaque red
+     */
+    private static int colour(double heat) {
+        double position = Math.max(0, Math.min(1, heat)) * (STOPS.length - 1);
+        int stop = Math.min((int) position, STOPS.length - 2);
+        double t = position - stop;
+        int argb = 0;
+        for (int i = 0; i < 4; i++) {
+            int channel = (int) Math.round(STOPS[stop][i] + (STOPS[stop + 1][i] - STOPS[stop][i]) * t);
+            argb = argb << 8 | channel;
+        }
+        return argb;
+    }
+
+    private static byte[] png(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
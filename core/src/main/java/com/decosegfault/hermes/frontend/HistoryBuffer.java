@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.decosegfault.hermes.types.VehicleType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fixed size history of what was broadcast to the frontend, so a dashboard that connects late can catch up.
+ * <p>
+ * Every broadcast is recorded into the finest level, and each level's windows are averaged down into the
+ * next coarser one: 1 second samples for the last 15 minutes, 15 second samples for the last 4 hours and
+ * 1 minute samples for the last day. A sample holds the mean count of each route and vehicle type over
+ * its window, and the number and mean delay of the expected vs real arrivals in it. Slots are allocated
+ * up front and routes are stored by index, so memory only grows with the number of routes.
+ * <p>
+ * Times are wall clock epoch milliseconds. Recorded on the Hermes thread and queried from the server
+ * threads, see {@link HistoryServlet} and {@link FrontendEndpoint}.
+ *
+ * @author Cathy Nguyen
+ */
+public class HistoryBuffer {
+    private static final VehicleType[] TYPES = VehicleType.values();
+
+    private final Level[] levels = {
+        new Level(0, 1000, 900),
+        new Level(1, 15 * 1000, 960),
+        new Level(2, 60 * 1000, 1440),
+    };
+    private final Map<String, Integer> routeIndex = new HashMap<>();
+    private final List<String> routeNames = new ArrayList<>();
+
+    // scratch for one recording
+    private float[] routes = new float[256];
+    private final float[] types = new float[TYPES.length];
+
+    /** one averaged window */
+    public static class Sample {
+        /** start of the window */
+        long time;
+        Map<String, Float> routeFrequency;
+        Map<String, Float> vehicleTypes;
+        /** expected vs real arrivals in the window */
+        int arrivals;
+        /** mean of actual - expected over those arrivals, 0 if there were none */
+        double meanDelay;
+
+        public long getTime() {
+            return time;
+        }
+
+        public Map<String, Float> getRouteFrequency() {
+            return routeFrequency;
+        }
+
+        public Map<String, Float> getVehicleTypes() {
+            return vehicleTypes;
+        }
+
+        public int getArrivals() {
+            return arrivals;
+        }
+
+        public double getMeanDelay() {
+            return meanDelay;
+        }
+    }
+
+    /** answer to a range query */
+    public static class Response {
+        final String type = "history";
+        /** length of each sample's window in milliseconds */
+        long resolution;
+        List<Sample> samples;
+
+        public long getResolution() {
+            return resolution;
+        }
+
+        public List<Sample> getSamples() {
+            return samples;
+        }
+    }
+
+    /**
+     * Records one broadcast.
+     */
+    public synchronized void record(long timeMillis, FrontendData data) {
+        Arrays.fill(routes, 0);
+        Arrays.fill(types, 0);
+        if (data.getRouteFrequency() != null) {
+            for (Map.Entry<String, Integer> entry : data.getRouteFrequency().entrySet()) {
+                int index = indexOf(entry.getKey());
+                routes[index] = entry.getValue();
+            }
+        }
+        if (data.getVehicleTypes() != null) {
+            for (Map.Entry<String, Integer> entry : data.getVehicleTypes().entrySet()) {
+                for (VehicleType type : TYPES) {
+                    if (type.toString().equals(entry.getKey())) types[type.ordinal()] = entry.getValue();
+                }
+            }
+        }
+        double delaySum = 0;
+        int arrivals = 0;
+        if (data.getRouteExpectedReals() != null) {
+            for (RouteExpectedReal expectedReal : data.getRouteExpectedReals()) {
+                delaySum += expectedReal.getActualTime() - expectedReal.getExpectedTime();
+                arrivals++;
+            }
+        }
+
+        levels[0].add(timeMillis, routes, routeNames.size(), types, delaySum, arrivals, 1);
+    }
+
+    /**
+     * @return the samples that start between from and to inclusive, from the finest level that still
+     * goes back to from, or if none does, the finest of the levels that go back furthest
+     */
+    public synchronized Response query(long from, long to) {
+        Level level = levels[0];
+        for (Level candidate : levels) {
+            if (candidate.size == 0) continue;
+            if (candidate.oldest() <= from) {
+                level = candidate;
+                break;
+            }
+            // early in a run the coarser levels haven't filled a window yet, so they cover less
+            if (level.size == 0 || candidate.oldest() < level.oldest()) level = candidate;
+        }
+        Response response = new Response();
+        response.resolution = level.period;
+        response.samples = level.range(from, to);
+        return response;
+    }
+
+    private int indexOf(String route) {
+        Integer index = routeIndex.get(route);
+        if (index != null) return index;
+        index = routeNames.size();
+        routeIndex.put(route, index);
+        routeNames.add(route);
+        if (index >= routes.length) routes = Arrays.copyOf(routes, routes.length * 2);
+        return index;
+    }
+
+    /** one resolution of the history, a ring of samples plus the window being accumulated */
+    private final class Level {
+        final int index;
+        final long period;
+        final int capacity;
+
+        // ring, oldest at (head - size) mod capacity
+        final long[] times;
+        final float[][] routeMeans;
+        final float[][] typeMeans;
+        final int[] arrivals;
+        final double[] meanDelays;
+        int head = 0;
+        int size = 0;
+
+        // window being accumulated
+        long windowStart = Long.MIN_VALUE;
+        float[] routeSums = new float[256];
+        final float[] typeSums = new float[TYPES.length];
+        double delaySum;
+        int arrivalSum;
+        int weight;
+
+        Level(int index, long period, int capacity) {
+            this.index = index;
+            this.period = period;
+            this.capacity = capacity;
+            times = new long[capacity];
+            routeMeans = new float[capacity][];
+            typeMeans = new float[capacity][TYPES.length];
+            arrivals = new int[capacity];
+            meanDelays = new double[capacity];
+        }
+
+        /**
+         * Adds means worth weight samples to the current window, first closing the window if time is past it.
+         */
+        void add(long time, float[] routes, int routeCount, float[] types, double delays, int arrivalCount,
+                 int sampleWeight) {
+            if (windowStart != Long.MIN_VALUE && time >= windowStart + period) {
+                flush();
+            }
+            if (weight == 0) windowStart = time - time % period;
+            if (routeSums.length < routeCount) routeSums = Arrays.copyOf(routeSums, Math.max(routeCount, routeSums.length * 2));
+            for (int i = 0; i < routeCount; i++) {
+                routeSums[i] += routes[i] * sampleWeight;
+            }
+            for (int i = 0; i < types.length; i++) {
+                typeSums[i] += types[i] * sampleWeight;
+            }
+            delaySum += delays;
+            arrivalSum += arrivalCount;
+            weight += sampleWeight;
+        }
+
+        /** Stores the window in the ring and passes it on to the next level */
+        private void flush() {
+            int slot = head;
+            int routeCount = routeNames.size();
+            float[] means = routeMeans[slot];
+            if (means == null || means.length < routeCount) {
+                means = new float[Math.max(routeCount, routeSums.length)];
+                routeMeans[slot] = means;
+            }
+            Arrays.fill(means, 0);
+            for (int i = 0; i < Math.min(routeCount, routeSums.length); i++) {
+                means[i] = routeSums[i] / weight;
+            }
+            for (int i = 0; i < typeSums.length; i++) {
+                typeMeans[slot][i] = typeSums[i] / weight;
+            }
+            times[slot] = windowStart;
+            arrivals[slot] = arrivalSum;
+            meanDelays[slot] = arrivalSum > 0 ? delaySum / arrivalSum : 0;
+            head = (head + 1) % capacity;
+            size = Math.min(size + 1, capacity);
+
+            if (index + 1 < levels.length) {
+                levels[index + 1].add(windowStart, means, routeCount, typeMeans[slot], delaySum, arrivalSum, weight);
+            }
+
+            Arrays.fill(routeSums, 0);
+            Arrays.fill(typeSums, 0);
+            delaySum = 0;
+            arrivalSum = 0;
+            weight = 0;
+        }
+
+        long oldest() {
+            return times[(head - size + capacity) % capacity];
+        }
+
+        List<Sample> range(long from, long to) {
+            List<Sample> samples = new ArrayList<>();
+            for (int n = 0; n < size; n++) {
+                int slot = (head - size + n + capacity) % capacity;
+                if (times[slot] < from || times[slot] > to) continue;
+                Sample sample = new Sample();
+                sample.time = times[slot];
+                sample.routeFrequency = new HashMap<>();
+                float[] means = routeMeans[slot];
+                for (int i = 0; i < Math.min(means.length, routeNames.size()); i++) {
+                    if (means[i] > 0) sample.routeFrequency.put(routeNames.get(i), means[i]);
+                }
+                sample.vehicleTypes = new HashMap<>();
+                for (VehicleType type : TYPES) {
+                    sample.vehicleTypes.put(type.toString(), typeMeans[slot][type.ordinal()]);
+                }
+                sample.arrivals = arrivals[slot];
+                sample.meanDelay = meanDelays[slot];
+                samples.add(sample);
+            }
+            return samples;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.google.gson.Gson;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves the broadcast history at /history?from=epoch millis&amp;to=epoch millis as JSON, see
+ * {@link HistoryBuffer}. to defaults to now and from to 15 minutes before to.
+ *
+ * @author Cathy Nguyen
+ */
+public class HistoryServlet extends HttpServlet {
+    /** range returned when from isn't given, in milliseconds */
+    public static final long DEFAULT_RANGE = 15 * 60 * 1000;
+    private static final Gson gson = new Gson();
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long to;
+        long from;
+        try {
+            String toParam = request.getParameter("to");
+            String fromParam = request.getParameter("from");
+            to = toParam != null ? Long.parseLong(toParam) : System.currentTimeMillis();
+            from = fromParam != null ? Long.parseLong(fromParam) : to - DEFAULT_RANGE;
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "from and to must be epoch milliseconds");
+            return;
+        }
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        gson.toJson(FrontendEndpoint.history.query(from, to), response.getWriter());
+    }
+}
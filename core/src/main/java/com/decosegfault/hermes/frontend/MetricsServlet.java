@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Serves frontend socket metrics at /metrics in the Prometheus text format, including how far behind
+ * each connected client is.
+ *
+ * @author Cathy Nguyen
+ */
+public class MetricsServlet extends HttpServlet {
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain; version=0.0.4");
+        response.setStatus(HttpServletResponse.SC_OK);
+        PrintWriter out = response.getWriter();
+
+        out.println("# HELP hermes_frontend_clients Connected frontend socket clients");
+        out.println("# TYPE hermes_frontend_clients gauge");
+        out.println("hermes_frontend_clients " + FrontendEndpoint.clients().size());
+
+        out.println("# HELP hermes_frontend_client_lag_frames Broadcasts queued for the client that it hasn't received yet");
+        out.println("# TYPE hermes_frontend_client_lag_frames gauge");
+        for (FrontendEndpoint client : FrontendEndpoint.clients()) {
+            out.println("hermes_frontend_client_lag_frames" + label(client) + " " + client.lagFrames());
+        }
+        out.println("# HELP hermes_frontend_client_lag_seconds Age of the oldest frame waiting for the client");
+        out.println("# TYPE hermes_frontend_client_lag_seconds gauge");
+        for (FrontendEndpoint client : FrontendEndpoint.clients()) {
+            out.println("hermes_frontend_client_lag_seconds" + label(client) + " " + client.lagSeconds());
+        }
+        out.println("# HELP hermes_frontend_client_queued Frames queued for the client");
+        out.println("# TYPE hermes_frontend_client_queued gauge");
+        for (FrontendEndpoint client : FrontendEndpoint.clients()) {
+            out.println("hermes_frontend_client_queued" + label(client) + " " + client.queued());
+        }
+        out.println("# HELP hermes_frontend_client_dropped_total Frames dropped because the client fell behind");
+        out.println("# TYPE hermes_frontend_client_dropped_total counter");
+        for (FrontendEndpoint client : FrontendEndpoint.clients()) {
+            out.println("hermes_frontend_client_dropped_total" + label(client) + " " + client.dropped());
+        }
+    }
+
+    private static String label(FrontendEndpoint client) {
+        return "{client=\"" + client.session.getId() + "\"}";
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.badlogic.gdx.math.Vector3;
+import com.decosegfault.atlas.util.AtlasUtils;
+import com.decosegfault.hermes.CoverageIndex;
+import com.decosegfault.hermes.VehicleIndex;
+import com.google.gson.Gson;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers which vehicles are near a point from the {@link VehicleIndex}, as JSON. One of:
+ * <pre>
+ * /nearby?lat=-27.47&amp;long=153.02&amp;radius=500      vehicles within 500 m
+ * /nearby?lat=-27.47&amp;long=153.02&amp;k=10            the 10 nearest vehicles, nearest first
+ * /nearby?bbox=minLat,minLong,maxLat,maxLong       vehicles in the box
+ * </pre>
+ * Each vehicle is returned as its trip ID, lat and long. k is at most {@link #MAX_K}, the radius at most
+ * {@link #MAX_RADIUS} metres and the box at most {@link #MAX_BOX} degrees a side; anything bigger is a 400.
+ *
+ * @author Cathy Nguyen
+ */
+public class NearbyServlet extends HttpServlet {
+    public static final int MAX_K = 1000;
+    /** in metres */
+    public static final double MAX_RADIUS = 50000;
+    /** in degrees of lat or long */
+    public static final double MAX_BOX = 1;
+    private static final Gson gson = new Gson();
+    private final VehicleIndex index;
+
+    public NearbyServlet(VehicleIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        List<String> tripIDs;
+        try {
+            tripIDs = query(request);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        List<Map<String, Object>> vehicles = new ArrayList<>();
+        Vector3 atlas = new Vector3();
+        for (String tripID : tripIDs) {
+            double x = index.x(tripID);
+            double y = index.y(tripID);
+            // removed since the query
+            if (Double.isNaN(x)) continue;
+            Vector3 latLong = AtlasUtils.INSTANCE.atlasToLatLong(atlas.set((float) x, (float) y, 0));
+            Map<String, Object> vehicle = new LinkedHashMap<>();
+            vehicle.put("tripID", tripID);
+            vehicle.put("lat", latLong.x);
+            vehicle.put("long", latLong.y);
+            vehicles.add(vehicle);
+        }
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        gson.toJson(vehicles, response.getWriter());
+    }
+
+    private List<String> query(HttpServletRequest request) {
+        String bbox = request.getParameter("bbox");
+        if (bbox != null) {
+            String[] parts = bbox.split(",");
+            if (parts.length != 4) throw new IllegalArgumentException("bbox must be minLat,minLong,maxLat,maxLong");
+            double lat1 = parse(parts[0]);
+            double long1 = parse(parts[1]);
+            double lat2 = parse(parts[2]);
+            double long2 = parse(parts[3]);
+            if (!(Math.abs(lat2 - lat1) <= MAX_BOX && Math.abs(long2 - long1) <= MAX_BOX)) {
+                throw new IllegalArgumentException("bbox can be at most " + MAX_BOX + " degrees a side");
+            }
+            Vector3 corner1 = AtlasUtils.INSTANCE.latLongToAtlas(lat1, long1, 0.0);
+            Vector3 corner2 = AtlasUtils.INSTANCE.latLongToAtlas(lat2, long2, 0.0);
+            // Atlas y runs the opposite way to latitude, so sort the corners
+            return index.withinBox(Math.min(corner1.x, corner2.x), Math.min(corner1.y, corner2.y),
+                Math.max(corner1.x, corner2.x), Math.max(corner1.y, corner2.y));
+        }
+
+        String latParam = request.getParameter("lat");
+        String longParam = request.getParameter("long");
+        if (latParam == null || longParam == null) throw new IllegalArgumentException("lat and long are required");
+        double lat = parse(latParam);
+        double lon = parse(longParam);
+        Vector3 centre = AtlasUtils.INSTANCE.latLongToAtlas(lat, lon, 0.0);
+        String k = request.getParameter("k");
+        if (k != null) {
+            double count = parse(k);
+            if (!(count >= 1 && count <= MAX_K)) throw new IllegalArgumentException("k must be 1 to " + MAX_K);
+            return index.nearest(centre.x, centre.y, (int) count);
+        }
+        String radiusParam = request.getParameter("radius");
+        if (radiusParam == null) throw new IllegalArgumentException("radius or k is required");
+        double radius = parse(radiusParam);
+        if (!(radius >= 0 && radius <= MAX_RADIUS)) {
+            throw new IllegalArgumentException("radius must be 0 to " + MAX_RADIUS + " m");
+        }
+        return index.withinRadius(centre.x, centre.y, CoverageIndex.metresToAtlas(lat, lon, radius));
+    }
+
+    private static double parse(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad number " + value);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import org.tinylog.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves the static network under /network, for example /network/routes, /network/shapes and
+ * /network/interest. The documents never change after load, so each one is encoded and gzipped once by
+ * {@link #publish(String, String)} and every request just writes out the stored bytes. Responses carry an
+ * ETag so a client that already has a document gets a 304 with no body.
+ *
+ * @author Cathy Nguyen
+ */
+public class NetworkServlet extends HttpServlet {
+    private static final Map<String, CachedDocument> documents = new ConcurrentHashMap<>();
+
+    /** one JSON document, plain and gzipped */
+    private static final class CachedDocument {
+        final byte[] plain;
+        final byte[] gzipped;
+        final String etag;
+
+        CachedDocument(String json) {
+            plain = json.getBytes(StandardCharsets.UTF_8);
+            gzipped = gzip(plain);
+            etag = "W/\"" + hash(plain) + "\"";
+        }
+    }
+
+    /**
+     * Stores a document to be served at /network/name, replacing any earlier one.
+     */
+    public static void publish(String name, String json) {
+        CachedDocument document = new CachedDocument(json);
+        documents.put("/" + name, document);
+        Logger.info("Network document {}: {} bytes, {} gzipped", name, document.plain.length, document.gzipped.length);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String path = request.getPathInfo();
+        CachedDocument document = path == null ? null : documents.get(path);
+        if (document == null) {
+            if (documents.isEmpty()) {
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Network still loading");
+            } else {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            }
+            return;
+        }
+
+        response.setHeader("ETag", document.etag);
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Vary", "Accept-Encoding");
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.contains(document.etag) || ifNoneMatch.trim().equals("*"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        byte[] body = document.plain;
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            body = document.gzipped;
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.decosegfault.hermes.OnTimePerformance;
+import com.google.gson.Gson;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serves on time performance as JSON. /performance gives every route and all routes together, and
+ * /performance?route=name gives one route by hour of scheduled arrival. "overall" is left out until a trip
+ * has finished. See {@link OnTimePerformance}.
+ *
+ * @author Cathy Nguyen
+ */
+public class PerformanceServlet extends HttpServlet {
+    private static final Gson gson = new Gson();
+    private final OnTimePerformance performance;
+
+    public PerformanceServlet(OnTimePerformance performance) {
+        this.performance = performance;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String route = request.getParameter("route");
+        Object body;
+        if (route != null) {
+            body = performance.hours(route);
+            if (body == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "no finished trips on route " + route);
+                return;
+            }
+        } else {
+            Map<String, Object> all = new LinkedHashMap<>();
+            RoutePerformance overall = performance.overall();
+            if (overall != null) all.put("overall", overall);
+            all.put("routes", performance.getRoutePerformance());
+            body = all;
+        }
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        gson.toJson(body, response.getWriter());
+    }
+}
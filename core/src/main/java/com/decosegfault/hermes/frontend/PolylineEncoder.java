@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+/**
+ * Encodes lat/long paths in the Google encoded polyline format at 5 decimal places, which every web map
+ * library can decode. See https://developers.google.com/maps/documentation/utilities/polylinealgorithm
+ *
+ * @author Cathy Nguyen
+ */
+public class PolylineEncoder {
+    private PolylineEncoder() {
+    }
+
+    /**
+     * @return the path as an encoded polyline, lats and longs must be the same length
+     */
+    public static String encode(double[] lats, double[] longs) {
+        StringBuilder out = new StringBuilder(lats.length * 6);
+        long lastLat = 0;
+        long lastLong = 0;
+        for (int i = 0; i < lats.length; i++) {
+            long lat = Math.round(lats[i] * 1e5);
+            long lon = Math.round(longs[i] * 1e5);
+            encodeValue(lat - lastLat, out);
+            encodeValue(lon - lastLong, out);
+            lastLat = lat;
+            lastLong = lon;
+        }
+        return out.toString();
+    }
+
+    private static void encodeValue(long value, StringBuilder out) {
+        long shifted = value < 0 ? ~(value << 1) : value << 1;
+        while (shifted >= 0x20) {
+            out.append((char) ((0x20 | (shifted & 0x1f)) + 63));
+            shifted >>= 5;
+        }
+        out.append((char) (shifted + 63));
+    }
+}
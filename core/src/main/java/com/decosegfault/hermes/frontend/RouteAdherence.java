@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+/**
+ * Schedule adherence of all live vehicles on one route. Deviations are in seconds, positive is late.
+ *
+ * @author Cathy Nguyen
+ */
+public class RouteAdherence {
+
+    int vehicles;
+    double meanDeviation;
+    double minDeviation;
+    double maxDeviation;
+    int early;
+    int onTime;
+    int late;
+
+    /**
+     * Adds one vehicle's deviation to the aggregate.
+     *
+     * @param deviation seconds behind schedule, negative if early
+     * @param early true if the vehicle counts as early
+     * @param late true if the vehicle counts as late
+     */
+    public void add(double deviation, boolean early, boolean late) {
+        if (vehicles == 0) {
+            minDeviation = deviation;
+            maxDeviation = deviation;
+        } else {
+            minDeviation = Math.min(minDeviation, deviation);
+            maxDeviation = Math.max(maxDeviation, deviation);
+        }
+        meanDeviation += (deviation - meanDeviation) / (vehicles + 1);
+        vehicles++;
+        if (early) {
+            this.early++;
+        } else if (late) {
+            this.late++;
+        } else {
+            onTime++;
+        }
+    }
+
+    public int getVehicles() {
+        return vehicles;
+    }
+
+    public double getMeanDeviation() {
+        return meanDeviation;
+    }
+
+    public double getMinDeviation() {
+        return minDeviation;
+    }
+
+    public double getMaxDeviation() {
+        return maxDeviation;
+    }
+
+    public int getEarly() {
+        return early;
+    }
+
+    public int getOnTime() {
+        return onTime;
+    }
+
+    public int getLate() {
+        return late;
+    }
+}
@@ -15,6 +15,8 @@ public class RouteExpectedReal {
     String routeName;
     double expectedTime;
     double actualTime;
+    /** route short name, routeName is the trip headsign; kept out of the JSON */
+    transient String route;
 
     public String getRouteName() {
         return routeName;
@@ -24,6 +26,14 @@ public class RouteExpectedReal {
         this.routeName = routeName;
     }
 
+    public String getRoute() {
+        return route;
+    }
+
+    public void setRoute(String route) {
+        this.route = route;
+    }
+
     public double getExpectedTime() {
         return expectedTime;
     }
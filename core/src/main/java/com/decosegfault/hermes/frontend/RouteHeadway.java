@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+/**
+ * Headways observed on one route in one direction over the last {@link com.decosegfault.hermes.HeadwayTracker#WINDOW}
+ * seconds. Headways are in seconds.
+ *
+ * @author Cathy Nguyen
+ */
+public class RouteHeadway {
+    String route;
+    /** GTFS direction_id, null if the feed doesn't give one */
+    String direction;
+    int samples;
+    double meanHeadway;
+    double stdHeadway;
+    /** standard deviation over mean, 0 for perfectly even service */
+    double headwayCv;
+    /** vehicles currently bunched behind the one in front */
+    int bunched;
+
+    public RouteHeadway(String route, String direction, int samples, double meanHeadway, double stdHeadway,
+                        int bunched) {
+        this.route = route;
+        this.direction = direction;
+        this.samples = samples;
+        this.meanHeadway = meanHeadway;
+        this.stdHeadway = stdHeadway;
+        this.headwayCv = meanHeadway > 0 ? stdHeadway / meanHeadway : 0;
+        this.bunched = bunched;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public String getDirection() {
+        return direction;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public double getMeanHeadway() {
+        return meanHeadway;
+    }
+
+    public double getStdHeadway() {
+        return stdHeadway;
+    }
+
+    public double getHeadwayCv() {
+        return headwayCv;
+    }
+
+    public int getBunched() {
+        return bunched;
+    }
+}
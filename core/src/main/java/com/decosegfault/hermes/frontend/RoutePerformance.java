@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.decosegfault.hermes.DeviationHistogram;
+
+/**
+ * On time performance of one route, from how late each of its trips finished. Deviations are in seconds,
+ * positive is late; the percentiles are accurate to {@link DeviationHistogram#BIN_WIDTH} seconds.
+ *
+ * @author Cathy Nguyen
+ */
+public class RoutePerformance {
+    long trips;
+    double meanDeviation;
+    double p10;
+    double p50;
+    double p90;
+    double p95;
+
+    /**
+     * @param histogram must not be empty, or every figure is NaN
+     */
+    public RoutePerformance(DeviationHistogram histogram) {
+        trips = histogram.count();
+        meanDeviation = histogram.mean();
+        p10 = histogram.percentile(10);
+        p50 = histogram.percentile(50);
+        p90 = histogram.percentile(90);
+        p95 = histogram.percentile(95);
+    }
+
+    public long getTrips() {
+        return trips;
+    }
+
+    public double getMeanDeviation() {
+        return meanDeviation;
+    }
+
+    public double getP10() {
+        return p10;
+    }
+
+    public double getP50() {
+        return p50;
+    }
+
+    public double getP90() {
+        return p90;
+    }
+
+    public double getP95() {
+        return p95;
+    }
+}
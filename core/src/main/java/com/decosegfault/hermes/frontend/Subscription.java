@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.badlogic.gdx.math.Vector3;
+import com.decosegfault.atlas.util.AtlasUtils;
+import com.decosegfault.hermes.types.VehicleType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * What a frontend client wants to receive, sent by the client as a JSON text message:
+ * <pre>
+ * {"type": "subscribe", "routes": ["66", "60"], "vehicleTypes": ["BUS"],
+ *  "bbox": [minLat, minLong, maxLat, maxLong], "rate": 0.5}
+ * </pre>
+ * Every field is optional and an empty or missing one matches everything. Route frequency and vehicle type
+ * counts only count matching vehicles, adherence, performance, headways, bunching and affected routes are
+ * limited to the routes, and rate caps how many messages per second the client is sent.
+ * {"type": "unsubscribe"} goes back to everything.
+ * <p>
+ * Expected vs real arrivals aren't filtered, since they are keyed on trip headsign rather than route.
+ * Adherence, performance, headways and bunching are only filtered again when their source changes, so
+ * {@link DeltaProtocol} sees the same object and leaves them out of deltas.
+ *
+ * @author Cathy Nguyen
+ */
+public class Subscription {
+    String type;
+    List<String> routes;
+    List<String> vehicleTypes;
+    double[] bbox;
+    double rate;
+
+    // compiled by compile()
+    private transient Set<String> routeSet;
+    private transient EnumSet<VehicleType> typeSet;
+    private transient boolean hasBbox;
+    private transient float minX;
+    private transient float minY;
+    private transient float maxX;
+    private transient float maxY;
+    private transient long minIntervalNanos;
+    private transient long lastSentNanos = Long.MIN_VALUE;
+    private final transient Filtered<Map<String, RouteAdherence>> routeAdherence = new Filtered<>();
+    private final transient Filtered<Map<String, RoutePerformance>> routePerformance = new Filtered<>();
+    private final transient Filtered<List<RouteHeadway>> routeHeadways = new Filtered<>();
+    private final transient Filtered<List<BunchingAlert>> bunching = new Filtered<>();
+
+    /** last filtered copy of one field, kept while the field's source is the same object */
+    private static final class Filtered<T> {
+        private T source;
+        private T filtered;
+
+        T get(T next, UnaryOperator<T> filter) {
+            if (next != source) {
+                source = next;
+                filtered = next == null ? null : filter.apply(next);
+            }
+            return filtered;
+        }
+    }
+
+    /**
+     * @param rate messages per second
+     * @return a compiled subscription to everything at a limited rate
+     */
+    public static Subscription everything(double rate) {
+        Subscription subscription = new Subscription();
+        subscription.type = "subscribe";
+        subscription.rate = rate;
+        subscription.compile();
+        return subscription;
+    }
+
+    /**
+     * Checks the fields and builds the lookup structures used for filtering.
+     *
+     * @throws IllegalArgumentException if a field is malformed
+     */
+    public void compile() {
+        routeSet = routes == null || routes.isEmpty() ? null : new HashSet<>(routes);
+        typeSet = null;
+        if (vehicleTypes != null && !vehicleTypes.isEmpty()) {
+            typeSet = EnumSet.noneOf(VehicleType.class);
+            for (String vehicleType : vehicleTypes) {
+                typeSet.add(VehicleType.valueOf(vehicleType.toUpperCase()));
+            }
+        }
+        hasBbox = bbox != null;
+        if (hasBbox) {
+            if (bbox.length != 4) throw new IllegalArgumentException("bbox must be [minLat, minLong, maxLat, maxLong]");
+            Vector3 corner1 = AtlasUtils.INSTANCE.latLongToAtlas(bbox[0], bbox[1], 0.0);
+            Vector3 corner2 = AtlasUtils.INSTANCE.latLongToAtlas(bbox[2], bbox[3], 0.0);
+            // Atlas y runs the opposite way to latitude, so sort the corners
+            minX = Math.min(corner1.x, corner2.x);
+            maxX = Math.max(corner1.x, corner2.x);
+            minY = Math.min(corner1.y, corner2.y);
+            maxY = Math.max(corner1.y, corner2.y);
+        }
+        if (rate < 0) throw new IllegalArgumentException("rate can't be negative");
+        minIntervalNanos = rate > 0 ? (long) (1e9 / rate) : 0;
+    }
+
+    /**
+     * @return true if the client is due another message, in which case the send is recorded
+     */
+    public boolean due(long nowNanos) {
+        if (lastSentNanos != Long.MIN_VALUE && nowNanos - lastSentNanos < minIntervalNanos) return false;
+        lastSentNanos = nowNanos;
+        return true;
+    }
+
+    /** @return least time between messages to the client, 0 for every broadcast */
+    public long minIntervalNanos() {
+        return minIntervalNanos;
+    }
+
+    /** @return true if the route passes the route filter */
+    public boolean matchesRoute(String route) {
+        return routeSet == null || routeSet.contains(route);
+    }
+
+    /** @return true if vehicle i of the snapshot passes every filter */
+    public boolean matches(VehicleSnapshot vehicles, int i) {
+        if (!matchesRoute(vehicles.route(i))) return false;
+        if (typeSet != null && !typeSet.contains(vehicles.type(i))) return false;
+        return !hasBbox || inBbox(vehicles.x(i), vehicles.y(i));
+    }
+
+    /** @return true if the Atlas coords are in the bounding box, or there is no bounding box */
+    public boolean inBbox(float x, float y) {
+        return !hasBbox || (x >= minX && x <= maxX && y >= minY && y <= maxY);
+    }
+
+    /**
+     * @return a copy of the data cut down to what this subscription wants
+     */
+    public FrontendData filter(FrontendData data) {
+        FrontendData filtered = new FrontendData();
+        filtered.setInterestPoints(data.getInterestPoints());
+        filtered.setRouteExpectedReals(data.getRouteExpectedReals());
+        filtered.setRoutePerformance(routePerformance.get(data.getRoutePerformance(), this::filterKeys));
+        filtered.setVehicles(data.getVehicles());
+
+        if (data.getBusesInInterest() != null) {
+            Map<List<String>, String> busesInInterest = new HashMap<>();
+            for (Map.Entry<List<String>, String> entry : data.getBusesInInterest().entrySet()) {
+                if (matchesRoute(entry.getValue())) busesInInterest.put(entry.getKey(), entry.getValue());
+            }
+            filtered.setBusesInInterest(busesInInterest);
+        }
+        filtered.setRouteAdherence(routeAdherence.get(data.getRouteAdherence(), this::filterKeys));
+        filtered.setRouteHeadways(routeHeadways.get(data.getRouteHeadways(), headways -> {
+            List<RouteHeadway> kept = new ArrayList<>();
+            for (RouteHeadway headway : headways) {
+                if (matchesRoute(headway.route)) kept.add(headway);
+            }
+            return kept;
+        }));
+        filtered.setBunching(bunching.get(data.getBunching(), alerts -> {
+            List<BunchingAlert> kept = new ArrayList<>();
+            for (BunchingAlert alert : alerts) {
+                if (matchesRoute(alert.route)) kept.add(alert);
+            }
+            return kept;
+        }));
+
+        VehicleSnapshot vehicles = data.getVehicles();
+        if (vehicles == null) {
+            // no per-vehicle data, so only the route filter can be applied
+            filtered.setRouteFrequency(filterKeys(data.getRouteFrequency()));
+            filtered.setVehicleTypes(data.getVehicleTypes());
+            return filtered;
+        }
+        Map<String, Integer> routeFrequency = new HashMap<>();
+        Map<String, Integer> typeCounts = new HashMap<>();
+        for (int i = 0; i < vehicles.size(); i++) {
+            if (!matches(vehicles, i)) continue;
+            routeFrequency.merge(vehicles.route(i), 1, Integer::sum);
+            typeCounts.merge(vehicles.type(i).toString(), 1, Integer::sum);
+        }
+        filtered.setRouteFrequency(routeFrequency);
+        filtered.setVehicleTypes(typeCounts);
+        return filtered;
+    }
+
+    private <V> Map<String, V> filterKeys(Map<String, V> map) {
+        if (map == null || routeSet == null) return map;
+        Map<String, V> filtered = new HashMap<>();
+        for (Map.Entry<String, V> entry : map.entrySet()) {
+            if (routeSet.contains(entry.getKey())) filtered.put(entry.getKey(), entry.getValue());
+        }
+        return filtered;
+    }
+
+    @Override
+    public String toString() {
+        return "routes=" + routes + " vehicleTypes=" + vehicleTypes + " bbox=" + Arrays.toString(bbox) + " rate=" + rate;
+    }
+}
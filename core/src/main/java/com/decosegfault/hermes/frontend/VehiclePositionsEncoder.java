@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.badlogic.gdx.math.Vector3;
+import com.decosegfault.atlas.util.AtlasUtils;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes a {@link VehicleSnapshot} as a GTFS-RT VehiclePositions FeedMessage, the reverse of
+ * VehiclePositionsDecoder. Like {@link FrontendBinaryEncoder}, sizes are worked out first so the message is
+ * written straight into one exactly sized array. Each vehicle is an entity with the trip ID as its ID,
+ * the trip and route IDs, lat/long, bearing and timestamp.
+ * <p>
+ * Not thread safe, the lat/long of each vehicle is kept between the two passes.
+ *
+ * @author Cathy Nguyen
+ */
+public class VehiclePositionsEncoder {
+    // field numbers, see gtfs-realtime.proto
+    private static final int FEED_HEADER = 1;
+    private static final int FEED_ENTITY = 2;
+    private static final int HEADER_VERSION = 1;
+    private static final int HEADER_TIMESTAMP = 3;
+    private static final int ENTITY_ID = 1;
+    private static final int ENTITY_VEHICLE = 4;
+    private static final int VEHICLE_TRIP = 1;
+    private static final int VEHICLE_POSITION = 2;
+    private static final int VEHICLE_TIMESTAMP = 5;
+    private static final int TRIP_TRIP_ID = 1;
+    private static final int TRIP_ROUTE_ID = 5;
+    private static final int POSITION_LATITUDE = 1;
+    private static final int POSITION_LONGITUDE = 2;
+    private static final int POSITION_BEARING = 3;
+
+    private static final String VERSION = "2.0";
+
+    private final Vector3 atlas = new Vector3();
+    private float[] lats = new float[1024];
+    private float[] longs = new float[1024];
+    private float[] bearings = new float[1024];
+
+    /**
+     * @param timestamp POSIX seconds, used for the header and every vehicle
+     * @return the vehicles as a FeedMessage
+     */
+    public byte[] encode(VehicleSnapshot vehicles, long timestamp) {
+        convert(vehicles);
+        int headerSize = CodedOutputStream.computeStringSize(HEADER_VERSION, VERSION)
+            + CodedOutputStream.computeUInt64Size(HEADER_TIMESTAMP, timestamp);
+        int size = nestedSize(FEED_HEADER, headerSize);
+        for (int i = 0; i < vehicles.size(); i++) {
+            size += nestedSize(FEED_ENTITY, entitySize(vehicles, i, timestamp));
+        }
+
+        byte[] out = new byte[size];
+        CodedOutputStream stream = CodedOutputStream.newInstance(out);
+        try {
+            writeNestedHeader(stream, FEED_HEADER, headerSize);
+            stream.writeString(HEADER_VERSION, VERSION);
+            stream.writeUInt64(HEADER_TIMESTAMP, timestamp);
+            for (int i = 0; i < vehicles.size(); i++) {
+                writeNestedHeader(stream, FEED_ENTITY, entitySize(vehicles, i, timestamp));
+                stream.writeString(ENTITY_ID, str(vehicles.tripID(i)));
+                writeNestedHeader(stream, ENTITY_VEHICLE, vehicleSize(vehicles, i, timestamp));
+                writeNestedHeader(stream, VEHICLE_TRIP, tripSize(vehicles, i));
+                stream.writeString(TRIP_TRIP_ID, str(vehicles.tripID(i)));
+                stream.writeString(TRIP_ROUTE_ID, str(vehicles.routeID(i)));
+                writeNestedHeader(stream, VEHICLE_POSITION, positionSize());
+                stream.writeFloat(POSITION_LATITUDE, lats[i]);
+                stream.writeFloat(POSITION_LONGITUDE, longs[i]);
+                stream.writeFloat(POSITION_BEARING, bearings[i]);
+                stream.writeUInt64(VEHICLE_TIMESTAMP, timestamp);
+            }
+            stream.checkNoSpaceLeft();
+        } catch (IOException e) {
+            // only thrown if the sizes are wrong
+            throw new IllegalStateException("Bad VehiclePositions size", e);
+        }
+        return out;
+    }
+
+    /** Converts every vehicle's Atlas position and heading to lat/long and GTFS-RT bearing */
+    private void convert(VehicleSnapshot vehicles) {
+        if (lats.length < vehicles.size()) {
+            int capacity = Math.max(vehicles.size(), lats.length * 2);
+            lats = Arrays.copyOf(lats, capacity);
+            longs = Arrays.copyOf(longs, capacity);
+            bearings = Arrays.copyOf(bearings, capacity);
+        }
+        for (int i = 0; i < vehicles.size(); i++) {
+            atlas.set(vehicles.x(i), vehicles.y(i), 0);
+            Vector3 latLong = AtlasUtils.INSTANCE.atlasToLatLong(atlas);
+            lats[i] = latLong.x;
+            longs[i] = latLong.y;
+            // heading is counter clockwise from east, bearing is clockwise from north
+            float bearing = (90 - vehicles.heading(i)) % 360;
+            bearings[i] = bearing < 0 ? bearing + 360 : bearing;
+        }
+    }
+
+    private int entitySize(VehicleSnapshot vehicles, int i, long timestamp) {
+        return CodedOutputStream.computeStringSize(ENTITY_ID, str(vehicles.tripID(i)))
+            + nestedSize(ENTITY_VEHICLE, vehicleSize(vehicles, i, timestamp));
+    }
+
+    private int vehicleSize(VehicleSnapshot vehicles, int i, long timestamp) {
+        return nestedSize(VEHICLE_TRIP, tripSize(vehicles, i))
+            + nestedSize(VEHICLE_POSITION, positionSize())
+            + CodedOutputStream.computeUInt64Size(VEHICLE_TIMESTAMP, timestamp);
+    }
+
+    private static int tripSize(VehicleSnapshot vehicles, int i) {
+        return CodedOutputStream.computeStringSize(TRIP_TRIP_ID, str(vehicles.tripID(i)))
+            + CodedOutputStream.computeStringSize(TRIP_ROUTE_ID, str(vehicles.routeID(i)));
+    }
+
+    private static int positionSize() {
+        return CodedOutputStream.computeFloatSize(POSITION_LATITUDE, 0)
+            + CodedOutputStream.computeFloatSize(POSITION_LONGITUDE, 0)
+            + CodedOutputStream.computeFloatSize(POSITION_BEARING, 0);
+    }
+
+    private static int nestedSize(int field, int size) {
+        return CodedOutputStream.computeTagSize(field) + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    private static void writeNestedHeader(CodedOutputStream out, int field, int size) throws IOException {
+        out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(size);
+    }
+
+    /** protobuf strings can't be null */
+    private static String str(String s) {
+        return s == null ? "" : s;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.decosegfault.hermes.types.VehicleType;
+
+import java.util.Arrays;
+
+/**
+ * Every visible vehicle at the time of a broadcast, in parallel arrays that are reused every broadcast.
+ * Positions are Atlas coords whatever the sim mode. Filled by HermesSim on the Hermes thread and only read
+ * during the broadcast, so nothing holds on to it.
+ *
+ * @author Cathy Nguyen
+ */
+public class VehicleSnapshot {
+    private int size = 0;
+    private String[] tripIDs = new String[1024];
+    private String[] routeIDs = new String[1024];
+    private String[] routes = new String[1024];
+    private VehicleType[] types = new VehicleType[1024];
+    private float[] xs = new float[1024];
+    private float[] ys = new float[1024];
+    private float[] headings = new float[1024];
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @param tripID trip the vehicle is running
+     * @param routeID ID of the route, with its feed's namespace
+     * @param route route short name, same as the keys of route frequency
+     * @param heading heading in degrees, same convention as TripData
+     */
+    public void add(String tripID, String routeID, String route, VehicleType type, double x, double y,
+                    double heading) {
+        if (size == tripIDs.length) {
+            int capacity = size * 2;
+            tripIDs = Arrays.copyOf(tripIDs, capacity);
+            routeIDs = Arrays.copyOf(routeIDs, capacity);
+            routes = Arrays.copyOf(routes, capacity);
+            types = Arrays.copyOf(types, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            headings = Arrays.copyOf(headings, capacity);
+        }
+        tripIDs[size] = tripID;
+        routeIDs[size] = routeID;
+        routes[size] = route;
+        types[size] = type;
+        xs[size] = (float) x;
+        ys[size] = (float) y;
+        headings[size] = (float) heading;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String tripID(int i) {
+        return tripIDs[i];
+    }
+
+    public String routeID(int i) {
+        return routeIDs[i];
+    }
+
+    public String route(int i) {
+        return routes[i];
+    }
+
+    public VehicleType type(int i) {
+        return types[i];
+    }
+
+    public float x(int i) {
+        return xs[i];
+    }
+
+    public float y(int i) {
+        return ys[i];
+    }
+
+    public float heading(int i) {
+        return headings[i];
+    }
+}
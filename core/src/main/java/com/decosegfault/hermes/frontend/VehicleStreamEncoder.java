@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import org.tinylog.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Packs vehicle positions into the compact binary frames of the /vehicles socket.
+ * <p>
+ * Every vehicle gets a dense 16 bit ID for as long as it is on the network. A client is only told what an
+ * ID means (its trip, route and type) in the legend of the first frame it sees the vehicle in, after that
+ * each vehicle is 7 bytes. Frames are little endian:
+ * <pre>
+ * u8   version, 1
+ * u32  sequence number
+ * f32  minX, minY, maxX, maxY     bounds the positions are quantized over, in Atlas coords
+ * u16  legend entries, then for each:
+ *        u16 ID, u8 vehicle type ordinal, u8 length + UTF-8 route, u8 length + UTF-8 trip ID
+ * u16  vehicles, then for each:
+ *        u16 ID, u16 x, u16 y, u8 heading
+ * </pre>
+ * x is minX + x / 65535 * (maxX - minX), and the same for y. The bounds are the smallest box around the
+ * vehicles in the frame, so a client zoomed in on the city gets finer positions. Heading is degrees scaled
+ * to 0-255. A vehicle missing from a frame has left the client's viewport or the network, and an ID can
+ * be reused for another vehicle once it has left the network, in which case it is in the legend again.
+ * <p>
+ * Only used from the Hermes thread.
+ *
+ * @author Cathy Nguyen
+ */
+public class VehicleStreamEncoder {
+    public static final int VERSION = 1;
+    public static final int MAX_VEHICLES = 0xFFFF;
+    private static final int HEADER_SIZE = 1 + 4 + 4 * 4 + 2 + 2;
+    private static final int VEHICLE_SIZE = 2 + 2 + 2 + 1;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final ArrayDeque<Integer> freeIDs = new ArrayDeque<>();
+    private int nextID = 0;
+    /** bumped every time an ID is given to a new vehicle, so clients know to relearn it */
+    private int[] generations = new int[1024];
+    /** dense ID of each vehicle in the snapshot, -1 if none could be given */
+    private int[] snapshotIDs = new int[1024];
+    /** broadcast in which each ID was last seen, to find the vehicles that left */
+    private long[] lastSeen = new long[1024];
+    private long updates = 0;
+    private boolean warnedFull = false;
+
+    /** scratch for the vehicles and legend of one frame */
+    private int[] frameVehicles = new int[1024];
+    private int[] frameLegend = new int[1024];
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Gives an ID to every vehicle in the snapshot and frees the IDs of those that are gone.
+     * Call once per snapshot, before encoding any frames of it.
+     */
+    public void update(VehicleSnapshot vehicles) {
+        updates++;
+        if (snapshotIDs.length < vehicles.size()) {
+            snapshotIDs = new int[Math.max(vehicles.size(), snapshotIDs.length * 2)];
+        }
+        for (int i = 0; i < vehicles.size(); i++) {
+            String tripID = vehicles.tripID(i);
+            Integer id = ids.get(tripID);
+            if (id == null) {
+                id = allocate();
+                if (id < 0) {
+                    snapshotIDs[i] = -1;
+                    continue;
+                }
+                ids.put(tripID, id);
+            }
+            snapshotIDs[i] = id;
+            lastSeen[id] = updates;
+        }
+
+        if (ids.size() > vehicles.size()) {
+            ids.values().removeIf(id -> {
+                if (lastSeen[id] == updates) return false;
+                freeIDs.add(id);
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Encodes one frame for one client.
+     *
+     * @param subscription the client's filters, or null for every vehicle
+     * @param legend the IDs the client has been told about, updated with the ones in this frame
+     * @return the frame, in a buffer of its own so it can be sent asynchronously
+     */
+    public ByteBuffer encode(VehicleSnapshot vehicles, Subscription subscription, long seq, ClientLegend legend) {
+        int count = 0;
+        int legendCount = 0;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        if (legend.generations.length < nextID) {
+            legend.generations = Arrays.copyOf(legend.generations, Math.max(nextID, legend.generations.length * 2));
+        }
+        int[] clientGenerations = legend.generations;
+        if (frameVehicles.length < vehicles.size()) {
+            frameVehicles = new int[Math.max(vehicles.size(), frameVehicles.length * 2)];
+            frameLegend = new int[frameVehicles.length];
+        }
+
+        for (int i = 0; i < vehicles.size(); i++) {
+            int id = snapshotIDs[i];
+            if (id < 0 || (subscription != null && !subscription.matches(vehicles, i))) continue;
+            frameVehicles[count++] = i;
+            minX = Math.min(minX, vehicles.x(i));
+            maxX = Math.max(maxX, vehicles.x(i));
+            minY = Math.min(minY, vehicles.y(i));
+            maxY = Math.max(maxY, vehicles.y(i));
+            if (clientGenerations[id] != generations[id]) {
+                clientGenerations[id] = generations[id];
+                frameLegend[legendCount++] = i;
+            }
+        }
+        if (count == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+        float scaleX = maxX > minX ? 65535f / (maxX - minX) : 0;
+        float scaleY = maxY > minY ? 65535f / (maxY - minY) : 0;
+
+        // legend entries are at most 2 + 1 + 256 + 256 bytes
+        ensureCapacity(HEADER_SIZE + legendCount * 515 + count * VEHICLE_SIZE);
+        buffer.clear();
+        buffer.put((byte) VERSION);
+        buffer.putInt((int) seq);
+        buffer.putFloat(minX).putFloat(minY).putFloat(maxX).putFloat(maxY);
+
+        buffer.putShort((short) legendCount);
+        for (int j = 0; j < legendCount; j++) {
+            int i = frameLegend[j];
+            buffer.putShort((short) snapshotIDs[i]);
+            buffer.put((byte) vehicles.type(i).ordinal());
+            putString(vehicles.route(i));
+            putString(vehicles.tripID(i));
+        }
+
+        buffer.putShort((short) count);
+        for (int j = 0; j < count; j++) {
+            int i = frameVehicles[j];
+            buffer.putShort((short) snapshotIDs[i]);
+            buffer.putShort((short) Math.round((vehicles.x(i) - minX) * scaleX));
+            buffer.putShort((short) Math.round((vehicles.y(i) - minY) * scaleY));
+            buffer.put(headingByte(vehicles.heading(i)));
+        }
+        buffer.flip();
+        ByteBuffer frame = ByteBuffer.allocate(buffer.remaining());
+        frame.put(buffer).flip();
+        return frame;
+    }
+
+    /** @return number of vehicles with an ID */
+    public int size() {
+        return ids.size();
+    }
+
+    /** @return heading in degrees scaled to a byte, 0 is 0 degrees and 255 is just under 360 */
+    static byte headingByte(float heading) {
+        if (Float.isNaN(heading)) return 0;
+        return (byte) Math.round(heading / 360f * 256f);
+    }
+
+    /**
+     * Generation of each ID a client has been sent the legend for. One per client, not thread safe.
+     */
+    public static final class ClientLegend {
+        private int[] generations = new int[1024];
+    }
+
+    private int allocate() {
+        int id;
+        if (!freeIDs.isEmpty()) {
+            id = freeIDs.poll();
+        } else if (nextID < MAX_VEHICLES) {
+            id = nextID++;
+            if (id >= generations.length) {
+                generations = Arrays.copyOf(generations, generations.length * 2);
+                lastSeen = Arrays.copyOf(lastSeen, lastSeen.length * 2);
+            }
+        } else {
+            if (!warnedFull) {
+                Logger.warn("Over {} vehicles, the rest won't be streamed", MAX_VEHICLES);
+                warnedFull = true;
+            }
+            return -1;
+        }
+        // clients have never seen generation 0, so the first use of an ID is always in the legend
+        generations[id]++;
+        return id;
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, 255);
+        buffer.put((byte) length);
+        buffer.put(bytes, 0, length);
+    }
+
+    private void ensureCapacity(int size) {
+        if (buffer.capacity() >= size) return;
+        buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.frontend;
+
+import com.google.gson.Gson;
+import org.tinylog.Logger;
+
+import javax.websocket.*;
+import javax.websocket.server.ServerEndpoint;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streams the position of every vehicle to browser maps, in the binary frames described in
+ * {@link VehicleStreamEncoder}.
+ * <p>
+ * Frames are published at -Dhermes.vehicleRate frames per second (default 2). A client limits the stream
+ * to its viewport by sending the same JSON {@link Subscription} as the /socket endpoint, usually just with
+ * a bbox, and can lower its own rate with the subscription's rate. Only the latest positions matter, so a
+ * client that is still receiving the previous frame just skips this one.
+ *
+ * @author Cathy Nguyen
+ */
+@ServerEndpoint(value="/vehicles", configurator=FrontendConfigurator.class)
+public class VehicleStreamEndpoint {
+    /** frames per second sent to each client */
+    public static final double RATE = Double.parseDouble(System.getProperty("hermes.vehicleRate", "2"));
+    private static final long INTERVAL_NANOS = (long) (1e9 / RATE);
+
+    private static final Set<VehicleStreamEndpoint> endpoints = ConcurrentHashMap.newKeySet();
+    private static final VehicleStreamEncoder encoder = new VehicleStreamEncoder();
+    private static final Gson gson = new Gson();
+    private static long lastPublishNanos = Long.MIN_VALUE;
+    private static long seq = 0;
+
+    private Session session;
+    private volatile Subscription subscription;
+    /** only touched on the Hermes thread */
+    private VehicleStreamEncoder.ClientLegend legend = new VehicleStreamEncoder.ClientLegend();
+    /** true while a frame is being sent */
+    private volatile boolean sending = false;
+    /** set when a frame failed, so its legend entries are sent again */
+    private volatile boolean resetLegend = false;
+
+    @OnOpen
+    public void onOpen(Session session) {
+        this.session = session;
+        endpoints.add(this);
+    }
+
+    @OnClose
+    public void onClose(Session session) {
+        endpoints.remove(this);
+    }
+
+    /**
+     * Handles a subscribe or unsubscribe message, see {@link Subscription}.
+     */
+    @OnMessage
+    public void onMessage(String message, Session session) {
+        try {
+            Subscription request = gson.fromJson(message, Subscription.class);
+            if (request == null || request.type == null) throw new IllegalArgumentException("no type");
+            if (request.type.equals("subscribe")) {
+                request.compile();
+                subscription = request;
+                Logger.info("Vehicle stream client {} subscribed to {}", session.getId(), request);
+            } else if (request.type.equals("unsubscribe")) {
+                subscription = null;
+            } else {
+                throw new IllegalArgumentException("unknown type " + request.type);
+            }
+        } catch (RuntimeException e) {
+            Logger.warn("Bad subscription from vehicle stream client {}: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    @OnError
+    public void onError(Session session, Throwable throwable) {
+        Logger.warn("Vehicle stream error on client {}", session.getId());
+        Logger.warn(throwable);
+    }
+
+    /**
+     * @return true if a frame is due to be published, so the caller knows to fill a snapshot
+     */
+    public static boolean due(long nowNanos) {
+        return !endpoints.isEmpty()
+            && (lastPublishNanos == Long.MIN_VALUE || nowNanos - lastPublishNanos >= INTERVAL_NANOS);
+    }
+
+    /**
+     * Sends the vehicles to every client that is due a frame. Must be called from the Hermes thread.
+     */
+    public static void publish(VehicleSnapshot vehicles, long nowNanos) {
+        lastPublishNanos = nowNanos;
+        seq++;
+        encoder.update(vehicles);
+        for (VehicleStreamEndpoint endpoint : endpoints) {
+            endpoint.send(vehicles, nowNanos);
+        }
+    }
+
+    private void send(VehicleSnapshot vehicles, long nowNanos) {
+        if (sending) return;
+        Subscription current = subscription;
+        if (current != null && !current.due(nowNanos)) return;
+        if (resetLegend) {
+            legend = new VehicleStreamEncoder.ClientLegend();
+            resetLegend = false;
+        }
+
+        ByteBuffer frame = encoder.encode(vehicles, current, seq, legend);
+        sending = true;
+        try {
+            session.getAsyncRemote().sendBinary(frame, result -> {
+                if (!result.isOK()) {
+                    Logger.warn("Failed to send vehicles to client {}", session.getId());
+                    resetLegend = true;
+                }
+                sending = false;
+            });
+        } catch (IllegalStateException e) {
+            // session closed under us
+            sending = false;
+        }
+    }
+}
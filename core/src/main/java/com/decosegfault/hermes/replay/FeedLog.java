@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.replay;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read side of a GTFS-RT log written by {@link FeedRecorder}.
+ * <p>
+ * The file starts with the 4 byte magic "HRTL" and a version byte, followed by records of:
+ * kind (1 byte), feed header timestamp (8 bytes, seconds), payload length (4 bytes) and the raw
+ * protobuf payload. Opening a log only scans the record headers to build a per-kind timestamp index;
+ * payloads are read from disk when asked for.
+ *
+ * @author Cathy Nguyen
+ */
+public class FeedLog implements Closeable {
+    public static final byte[] MAGIC = {'H', 'R', 'T', 'L'};
+    public static final byte VERSION = 1;
+    /** record kind for VehiclePositions snapshots */
+    public static final byte VEHICLE_POSITIONS = 1;
+    /** record kind for TripUpdates snapshots */
+    public static final byte TRIP_UPDATES = 2;
+    /** size of a record header: kind, timestamp, length */
+    static final int RECORD_HEADER_SIZE = 1 + 8 + 4;
+
+    private final FileChannel channel;
+    private final Index vehiclePositions = new Index();
+    private final Index tripUpdates = new Index();
+
+    /**
+     * Opens a log and indexes its records.
+     *
+     * @throws IOException if the file can't be read or isn't a GTFS-RT log
+     */
+    public FeedLog(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+        header.limit(MAGIC.length + 1);
+        readFully(header, 0);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header.get(i) != MAGIC[i]) {
+                channel.close();
+                throw new IOException("Not a GTFS-RT log: " + path);
+            }
+        }
+        if (header.get(MAGIC.length) != VERSION) {
+            channel.close();
+            throw new IOException("Unsupported GTFS-RT log version " + header.get(MAGIC.length) + ": " + path);
+        }
+
+        long position = MAGIC.length + 1;
+        long size = channel.size();
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, position);
+            byte kind = header.get(0);
+            long timestamp = header.getLong(1);
+            int length = header.getInt(9);
+            long payload = position + RECORD_HEADER_SIZE;
+            // a truncated last record means the recorder was killed mid-write, just ignore it
+            if (payload + length > size) break;
+            if (kind == VEHICLE_POSITIONS) {
+                vehiclePositions.add(timestamp, payload, length);
+            } else if (kind == TRIP_UPDATES) {
+                tripUpdates.add(timestamp, payload, length);
+            }
+            position = payload + length;
+        }
+    }
+
+    /** @return the index of the given record kind */
+    public Index index(byte kind) {
+        return kind == VEHICLE_POSITIONS ? vehiclePositions : tripUpdates;
+    }
+
+    /**
+     * Reads the payload of a record.
+     *
+     * @param kind record kind
+     * @param record record number in that kind's index
+     */
+    public byte[] read(byte kind, int record) throws IOException {
+        Index index = index(kind);
+        ByteBuffer buffer = ByteBuffer.allocate(index.lengths[record]);
+        readFully(buffer, index.offsets[record]);
+        return buffer.array();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException();
+            position += read;
+        }
+    }
+
+    /**
+     * Timestamp-ordered index of the records of one kind.
+     */
+    public static class Index {
+        private long[] timestamps = new long[64];
+        private long[] offsets = new long[64];
+        private int[] lengths = new int[64];
+        private int size = 0;
+
+        private void add(long timestamp, long offset, int length) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            timestamps[size] = timestamp;
+            offsets[size] = offset;
+            lengths[size] = length;
+            size++;
+        }
+
+        /** @return number of records */
+        public int size() {
+            return size;
+        }
+
+        /** @return feed timestamp of a record */
+        public long timestamp(int record) {
+            return timestamps[record];
+        }
+
+        /**
+         * @return the last record with a timestamp at or before the given time, or -1 if there is none
+         */
+        public int floor(double time) {
+            int low = 0;
+            int high = size - 1;
+            int result = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[mid] <= time) {
+                    result = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return result;
+        }
+    }
+}
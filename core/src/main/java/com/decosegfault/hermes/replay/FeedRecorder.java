@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.replay;
+
+import org.tinylog.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Appends raw GTFS-RT snapshots to a log file so they can be replayed offline by {@link ReplayDataFeed}.
+ * See {@link FeedLog} for the file format. Appending to an existing log continues it.
+ *
+ * @author Cathy Nguyen
+ */
+public class FeedRecorder implements Closeable {
+    private final DataOutputStream out;
+    private final Path path;
+
+    /**
+     * @param path log file, created if it doesn't exist
+     */
+    public FeedRecorder(Path path) throws IOException {
+        this.path = path;
+        boolean isNew = !Files.exists(path) || Files.size(path) == 0;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile(), true)));
+        if (isNew) {
+            out.write(FeedLog.MAGIC);
+            out.writeByte(FeedLog.VERSION);
+            out.flush();
+        }
+        Logger.info("Recording GTFS-RT feeds to {}", path);
+    }
+
+    /**
+     * Appends one snapshot to the log.
+     *
+     * @param kind {@link FeedLog#VEHICLE_POSITIONS} or {@link FeedLog#TRIP_UPDATES}
+     * @param timestamp feed header timestamp in seconds
+     * @param payload raw protobuf bytes of the feed
+     */
+    public synchronized void record(byte kind, long timestamp, byte[] payload) {
+        try {
+            out.writeByte(kind);
+            out.writeLong(timestamp);
+            out.writeInt(payload.length);
+            out.write(payload);
+            // snapshots only arrive every few seconds, so flushing each one costs little and means a
+            // killed process loses at most the record being written
+            out.flush();
+        } catch (IOException e) {
+            Logger.warn("Failed to record GTFS-RT snapshot to {}: {}", path, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
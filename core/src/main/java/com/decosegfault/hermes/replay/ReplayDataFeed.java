@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.replay;
+
+import com.decosegfault.hermes.FeedSource;
+import com.decosegfault.hermes.LiveDataFeed;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Drop-in replacement for {@link LiveDataFeed} that streams a log written by {@link FeedRecorder}
+ * instead of hitting the realtime APIs, so LIVE mode can be tested and benchmarked offline.
+ * Only one feed is replayed, and snapshots are read on the Hermes thread rather than by a worker.
+ * <p>
+ * The replay clock starts at the first recorded VehiclePositions snapshot on the first update and runs
+ * at the given speed. A speed of 0 or less steps through one snapshot per update instead, which is
+ * the fastest way to push a whole log through Hermes.
+ *
+ * @author Cathy Nguyen
+ */
+public class ReplayDataFeed extends LiveDataFeed {
+    private final FeedLog log;
+    private final double speed;
+    private final FeedLog.Index vehicleIndex;
+    private final FeedLog.Index tripIndex;
+
+    /** wall clock time of the first update, in ns */
+    private long wallStart = -1;
+    /** last VehiclePositions record handed out */
+    private int vehicleRecord = -1;
+    /** last TripUpdates record handed out */
+    private int tripRecord = -1;
+
+    /**
+     * @param path log file to replay
+     * @param speed playback speed, 1 for real time, 0 or less to step one snapshot per update
+     * @param source the feed the log was recorded from
+     */
+    public ReplayDataFeed(Path path, double speed, FeedSource source) throws IOException {
+        super(List.of(source));
+        log = new FeedLog(path);
+        this.speed = speed;
+        vehicleIndex = log.index(FeedLog.VEHICLE_POSITIONS);
+        tripIndex = log.index(FeedLog.TRIP_UPDATES);
+        if (vehicleIndex.size() == 0) {
+            log.close();
+            throw new IOException("GTFS-RT log has no VehiclePositions snapshots: " + path);
+        }
+        Logger.info("Replaying {} VehiclePositions and {} TripUpdates snapshots from {} at {}x",
+            vehicleIndex.size(), tripIndex.size(), path, speed > 0 ? speed : "step");
+    }
+
+    @Override
+    public double clockSeconds() {
+        if (speed <= 0) {
+            return vehicleIndex.timestamp(Math.max(vehicleRecord, 0));
+        }
+        if (wallStart < 0) {
+            wallStart = System.nanoTime();
+        }
+        double elapsed = (System.nanoTime() - wallStart) / 1e9;
+        return vehicleIndex.timestamp(0) + elapsed * speed;
+    }
+
+    @Override
+    protected boolean pollsInBackground() {
+        return false;
+    }
+
+    @Override
+    protected byte[] fetchVehiclePositions(FeedSource source) throws IOException {
+        int record = speed <= 0 ? Math.min(vehicleRecord + 1, vehicleIndex.size() - 1)
+            : vehicleIndex.floor(clockSeconds());
+        if (record < 0 || record == vehicleRecord) return null;
+        vehicleRecord = record;
+        return log.read(FeedLog.VEHICLE_POSITIONS, record);
+    }
+
+    @Override
+    protected byte[] fetchTripUpdates(FeedSource source) throws IOException {
+        int record = tripIndex.floor(clockSeconds());
+        if (record < 0 || record == tripRecord) return null;
+        tripRecord = record;
+        return log.read(FeedLog.TRIP_UPDATES, record);
+    }
+
+    /** Stops the feed and closes the log, nothing can be replayed after this */
+    @Override
+    public void stop() {
+        super.stop();
+        try {
+            log.close();
+        } catch (IOException e) {
+            Logger.warn("Failed to close GTFS-RT log");
+            Logger.warn(e);
+        }
+    }
+
+    /** @return true once the last snapshot in the log has been replayed */
+    public boolean isFinished() {
+        return vehicleRecord == vehicleIndex.size() - 1;
+    }
+}
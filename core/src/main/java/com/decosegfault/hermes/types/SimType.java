@@ -17,4 +17,15 @@ public enum SimType {
     HISTORY,
     LIVE,
     SIMULATED,
+    /** history, with each trip shifted by its delay from the live TripUpdates feed */
+    HISTORY_DELAYS,
+    /** live, with every vehicle compared against its scheduled trip */
+    ADHERENCE;
+
+    /**
+     * @return true if vehicles come from the live feed rather than the schedule
+     */
+    public boolean hasLiveVehicles() {
+        return this == LIVE || this == ADHERENCE;
+    }
 }
@@ -37,7 +37,6 @@ import com.decosegfault.atlas.util.Assets.ASSETS
 import com.decosegfault.atlas.util.FirstPersonCamController
 import com.decosegfault.hermes.HermesSim
 import com.decosegfault.hermes.RouteHandler
-import com.decosegfault.hermes.types.SimType
 import com.google.common.util.concurrent.ThreadFactoryBuilder
 import ktx.app.clearScreen
 import net.mgsx.gltf.scene3d.attributes.PBRCubemapAttribute
@@ -462,7 +461,7 @@ class SimulationScreen(private val game: Game) : ScreenAdapter() {
      * Live time for live data, and or historical time.
      */
     private fun calculateTime(): String {
-        if (RouteHandler.simType == SimType.LIVE) {
+        if (RouteHandler.simType.hasLiveVehicles()) {
             return java.time.LocalTime.now().format(TIME_FORMATTER)
         }
 
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.headless;
+
+import com.decosegfault.atlas.util.HPVector3;
+import com.decosegfault.hermes.frontend.FrontendBinaryEncoder;
+import com.decosegfault.hermes.frontend.FrontendData;
+import com.decosegfault.hermes.frontend.FrontendDataEncoder;
+import com.decosegfault.hermes.frontend.RouteAdherence;
+import com.decosegfault.hermes.frontend.RouteExpectedReal;
+import org.tinylog.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares encode time and payload size of the JSON and binary frontend encodings on a synthetic
+ * FrontendData about the size of a busy Translink tick.
+ * Run with ./gradlew headless:benchmarkFrontend, optionally passing the number of routes as an argument.
+ *
+ * @author Cathy Nguyen
+ */
+public class FrontendEncodingBenchmark {
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 10000;
+
+    public static void main(String[] args) throws Exception {
+        int routes = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        FrontendData data = syntheticData(routes);
+        FrontendDataEncoder json = new FrontendDataEncoder();
+
+        int jsonSize = json.encode(data).getBytes(StandardCharsets.UTF_8).length;
+        int binarySize = FrontendBinaryEncoder.encode(data).length;
+
+        // sink stops the JIT from throwing the encodes away
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += json.encode(data).length();
+            sink += FrontendBinaryEncoder.encode(data).length;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += json.encode(data).getBytes(StandardCharsets.UTF_8).length;
+        }
+        double jsonMicros = (System.nanoTime() - start) / 1e3 / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += FrontendBinaryEncoder.encode(data).length;
+        }
+        double binaryMicros = (System.nanoTime() - start) / 1e3 / ITERATIONS;
+
+        Logger.info("FrontendData with {} routes, {} iterations (sink {})", routes, ITERATIONS, sink);
+        Logger.info(String.format("JSON:   %8d bytes  %8.1f us/encode", jsonSize, jsonMicros));
+        Logger.info(String.format("Binary: %8d bytes  %8.1f us/encode", binarySize, binaryMicros));
+        Logger.info(String.format("Binary is %.1f%% of the JSON size and %.1fx as fast",
+            100.0 * binarySize / jsonSize, jsonMicros / binaryMicros));
+    }
+
+    static FrontendData syntheticData(int routes) {
+        Random random = new Random(3801);
+        FrontendData data = new FrontendData();
+
+        Map<String, HPVector3> interestPoints = new HashMap<>();
+        interestPoints.put("Suncorp Stadium", new HPVector3(-27.4648, 153.0095, 500.0));
+        interestPoints.put("Brisbane Entertainment Centre", new HPVector3(-27.3422, 153.0704, 700.0));
+        data.setInterestPoints(interestPoints);
+
+        Map<List<String>, String> busesInInterest = new HashMap<>();
+        Map<String, Integer> routeFrequency = new HashMap<>();
+        Map<String, RouteAdherence> routeAdherence = new HashMap<>();
+        for (int i = 0; i < routes; i++) {
+            String route = String.valueOf(100 + i);
+            routeFrequency.put(route, 1 + random.nextInt(20));
+            RouteAdherence adherence = new RouteAdherence();
+            for (int v = 0; v < 5; v++) {
+                double deviation = random.nextGaussian() * 180;
+                adherence.add(deviation, deviation < -60, deviation > 300);
+            }
+            routeAdherence.put(route, adherence);
+            if (i % 10 == 0) {
+                busesInInterest.put(List.of("Suncorp Stadium", "City to Route " + route), route);
+            }
+        }
+        data.setRouteFrequency(routeFrequency);
+        data.setRouteAdherence(routeAdherence);
+        data.setBusesInInterest(busesInInterest);
+
+        Map<String, Integer> vehicleTypes = new HashMap<>();
+        vehicleTypes.put("BUS", routes * 8);
+        vehicleTypes.put("TRAIN", routes / 5);
+        vehicleTypes.put("FERRY", routes / 20);
+        vehicleTypes.put("TRAM", routes / 50);
+        data.setVehicleTypes(vehicleTypes);
+
+        List<RouteExpectedReal> expectedReals = new ArrayList<>();
+        for (int i = 0; i < routes / 5; i++) {
+            RouteExpectedReal expectedReal = new RouteExpectedReal();
+            expectedReal.setRouteName("Route " + (100 + i) + " to the City");
+            expectedReal.setExpectedTime(30000 + random.nextInt(50000));
+            expectedReal.setActualTime(expectedReal.getExpectedTime() + random.nextGaussian() * 120);
+            expectedReals.add(expectedReal);
+        }
+        data.setRouteExpectedReals(expectedReals);
+        return data;
+    }
+}
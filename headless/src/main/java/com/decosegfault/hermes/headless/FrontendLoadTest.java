@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2023 DECO3801 Team Segmentation fault (core dumped).
+ *
+ * See the "@author" comment for who retains the copyright on this file.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.decosegfault.hermes.headless;
+
+import com.decosegfault.hermes.frontend.FrontendData;
+import com.decosegfault.hermes.frontend.FrontendEndpoint;
+import com.decosegfault.hermes.frontend.FrontendServer;
+import org.tinylog.Logger;
+
+import javax.websocket.*;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of FrontendServer: opens N local socket clients and broadcasts synthetic FrontendData to them
+ * at the Hermes tick rate, then reports delivery latency percentiles, throughput and dropped frames.
+ * <p>
+ * Run with ./gradlew headless:loadTestFrontend --args="clients ticks tickMillis routes query", all optional,
+ * defaulting to 100 clients, 600 ticks, 50 ms ticks, 500 routes and no query. The query is appended to
+ * every client's URL, for example "protocol=delta&amp;encoding=binary". Every tick is broadcast, as if
+ * -Dhermes.publishInterval=1. Latency is measured from broadcast to receipt, so it includes encoding,
+ * queueing and the socket, and is only measured for JSON clients.
+ *
+ * @author Cathy Nguyen
+ */
+public class FrontendLoadTest {
+    /** route whose count carries the tick number, so clients can tell which broadcast they got */
+    private static final String MARKER = "loadtest";
+    private static final String MARKER_KEY = "\"" + MARKER + "\":";
+
+    private static long[] sentNanos;
+
+    /** one load test client, counting and timing what it receives */
+    @ClientEndpoint
+    public static class LoadClient {
+        final List<Long> latencies = new ArrayList<>();
+        long messages = 0;
+        final AtomicLong bytes = new AtomicLong();
+
+        @OnMessage
+        public void onText(String message) {
+            long received = System.nanoTime();
+            bytes.addAndGet(message.length());
+            int start = message.indexOf(MARKER_KEY);
+            synchronized (this) {
+                messages++;
+                if (start < 0) return;
+                start += MARKER_KEY.length();
+                int end = start;
+                while (end < message.length() && Character.isDigit(message.charAt(end))) end++;
+                int tick = Integer.parseInt(message.substring(start, end));
+                if (tick < sentNanos.length) latencies.add(received - sentNanos[tick]);
+            }
+        }
+
+        @OnMessage
+        public void onBinary(ByteBuffer message) {
+            bytes.addAndGet(message.remaining());
+            synchronized (this) {
+                messages++;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        long tickMillis = args.length > 2 ? Long.parseLong(args[2]) : 50;
+        int routes = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+        String query = args.length > 4 ? "?" + args[4] : "";
+        sentNanos = new long[ticks];
+
+        FrontendServer server = new FrontendServer();
+        server.start();
+
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxTextMessageBufferSize(16 * 1024 * 1024);
+        container.setDefaultMaxBinaryMessageBufferSize(16 * 1024 * 1024);
+        URI uri = new URI("ws://localhost:42069/socket" + query);
+        List<LoadClient> clients = new ArrayList<>();
+        List<Session> sessions = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            LoadClient client = new LoadClient();
+            sessions.add(container.connectToServer(client, uri));
+            clients.add(client);
+        }
+        Logger.info("Connected {} clients to {}", clientCount, uri);
+
+        FrontendData data = FrontendEncodingBenchmark.syntheticData(routes);
+        Map<String, Integer> routeFrequency = new HashMap<>(data.getRouteFrequency());
+        long start = System.nanoTime();
+        for (int tick = 0; tick < ticks; tick++) {
+            long due = start + tick * tickMillis * 1_000_000;
+            long wait = due - System.nanoTime();
+            if (wait > 0) Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+
+            // a few routes change every tick, like a real network
+            for (int r = 0; r < 10; r++) {
+                routeFrequency.merge(String.valueOf(100 + (tick * 7 + r * 13) % routes), tick % 2 == 0 ? 1 : -1, Integer::sum);
+            }
+            routeFrequency.put(MARKER, tick);
+            data.setRouteFrequency(new HashMap<>(routeFrequency));
+            sentNanos[tick] = System.nanoTime();
+            FrontendEndpoint.broadcast(data);
+        }
+        double broadcastSeconds = (System.nanoTime() - start) / 1e9;
+
+        // let the queues drain
+        Thread.sleep(2000);
+        long dropped = 0;
+        for (FrontendEndpoint endpoint : FrontendEndpoint.clients()) {
+            dropped += endpoint.dropped();
+        }
+        report(clients, ticks, broadcastSeconds, dropped);
+
+        for (Session session : sessions) {
+            session.close();
+        }
+        server.stop();
+        System.exit(0);
+    }
+
+    private static void report(List<LoadClient> clients, int ticks, double seconds, long dropped) {
+        long messages = 0;
+        long bytes = 0;
+        List<Long> all = new ArrayList<>();
+        for (LoadClient client : clients) {
+            synchronized (client) {
+                messages += client.messages;
+                all.addAll(client.latencies);
+            }
+            bytes += client.bytes.get();
+        }
+        long expected = (long) ticks * clients.size();
+
+        Logger.info("{} clients, {} ticks in {} s", clients.size(), ticks, String.format("%.1f", seconds));
+        Logger.info(String.format("Received %d of %d frames (%.1f%%), %d dropped by the server",
+            messages, expected, 100.0 * messages / expected, dropped));
+        Logger.info(String.format("Throughput: %.0f frames/s, %.2f MB/s",
+            messages / seconds, bytes / seconds / 1e6));
+        if (all.isEmpty()) {
+            Logger.info("No latency samples, latency is only measured for JSON clients");
+            return;
+        }
+        long[] sorted = all.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        Logger.info(String.format("Latency ms: p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f",
+            percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 99.9),
+            sorted[sorted.length - 1] / 1e6));
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+}